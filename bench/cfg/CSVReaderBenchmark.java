@@ -0,0 +1,23 @@
+package cfg;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/* parsing of the shipped configuration files */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CSVReaderBenchmark {
+    @Param({"res/enemies.csv", "res/towers.csv", "res/levels.csv", "res/levels/waves.txt"})
+    public String filePath;
+
+    @Benchmark
+    public List<String[]> parse() {
+        return CSVReader.parse(filePath);
+    }
+}
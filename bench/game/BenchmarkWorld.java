@@ -0,0 +1,150 @@
+package game;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.SplittableRandom;
+
+import bagel.util.Point;
+
+import cfg.LevelData;
+
+/* builds headless simulations populated with set numbers of entities, for benchmarks
+   lanes are either the shipped level 1 lane, or a synthetic zigzag with many diagonal segments */
+public class BenchmarkWorld {
+    public static final String SHIPPED = "shipped";
+    public static final String SYNTHETIC = "synthetic";
+
+    private static final long SEED = 42;
+    private static final double END_MARGIN = 0.8; // enemies are spread over this share of the lane, so none leave it
+    private static final int SYNTHETIC_POINTS = 256;
+    private static final double MAP_WIDTH = 1024;
+    private static final double MAP_HEIGHT = 768;
+    private static final String[] GROUND_TOWERS = {"tank", "supertank"};
+    private static final String SWARM_TYPE = "slicer";
+
+    private static NavigableMap<Integer,LevelData> syntheticLevels = null;
+
+    /**
+     * creates a simulation of the first level on a lane, without any entities
+     *
+     * @param lane either SHIPPED or SYNTHETIC
+     * @return the simulation
+     */
+    public static SimulationEngine create (String lane) {
+        return new SimulationEngine(levels(lane), SEED);
+    }
+
+    /**
+     * returns the level pack simulations on a lane are created from, for restoring saves of them
+     *
+     * @param lane either SHIPPED or SYNTHETIC
+     * @return the first level of the pack
+     */
+    public static NavigableMap<Integer,LevelData> levels (String lane) {
+        NavigableMap<Integer,LevelData> levels = lane.equals(SYNTHETIC) ? syntheticLevels() : LevelData.loadFromFile();
+        return levels.headMap(levels.firstKey(), true);
+    }
+
+    /**
+     * creates a simulation with enemies of every type spread along the lane
+     * and ground towers at random positions; towers are not checked for valid placement
+     *
+     * @param lane either SHIPPED or SYNTHETIC
+     * @param enemies the number of enemies to spawn
+     * @param towers the number of towers to place
+     * @return the populated simulation
+     */
+    public static SimulationEngine create (String lane, int enemies, int towers) {
+        SimulationEngine sim = create(lane);
+        SplittableRandom random = new SplittableRandom(SEED);
+        String[] enemyTypes = Enemy.DATA.keySet().toArray(new String[0]);
+        for (int i=0; i<enemies; i++) {
+            Enemy.addEnemy(sim, enemyTypes[i%enemyTypes.length], random.nextDouble()*sim.getLane().getLength()*END_MARGIN);
+        }
+        for (int i=0; i<towers; i++) {
+            Tower.addTower(sim, GROUND_TOWERS[i%GROUND_TOWERS.length], randomPoint(random, sim));
+        }
+        return sim;
+    }
+
+    /**
+     * creates a simulation with one swarm of slicers spaced evenly along the lane
+     * and ground towers at random positions; towers are not checked for valid placement
+     *
+     * @param lane either SHIPPED or SYNTHETIC
+     * @param members the number of swarm members to spawn
+     * @param towers the number of towers to place
+     * @return the populated simulation
+     */
+    public static SimulationEngine createSwarm (String lane, int members, int towers) {
+        SimulationEngine sim = create(lane, 0, towers);
+        double spacing = sim.getLane().getLength()*END_MARGIN/members;
+        Swarm swarm = null;
+        // members are spawned lead first, as a wave spawns them
+        for (int i=members-1; i>=0; i--) swarm = Swarm.spawn(sim, swarm, SWARM_TYPE, i*spacing);
+        return sim;
+    }
+
+    /**
+     * returns random points on a simulation's map
+     *
+     * @param sim the simulation in question
+     * @param count the number of points
+     * @return the points, the same for every call with the same arguments
+     */
+    public static Point[] randomPoints (SimulationEngine sim, int count) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        Point[] result = new Point[count];
+        for (int i=0; i<count; i++) result[i] = randomPoint(random, sim);
+        return result;
+    }
+
+    private static Point randomPoint (SplittableRandom random, SimulationEngine sim) {
+        return new Point(random.nextDouble()*sim.getWidth(), random.nextDouble()*sim.getHeight());
+    }
+
+    // writes a synthetic level pack to a temporary directory, once per run
+    private static synchronized NavigableMap<Integer,LevelData> syntheticLevels() {
+        if (syntheticLevels != null) return syntheticLevels;
+        try {
+            File dir = new File(System.getProperty("java.io.tmpdir"), "sdef-bench");
+            dir.mkdirs();
+            File map = new File(dir, "synthetic.tmx");
+            File waves = new File(dir, "synthetic.txt");
+            File levels = new File(dir, "levels.csv");
+            try (PrintWriter out = new PrintWriter(map)) {
+                out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+                out.println("<map width=\"32\" height=\"24\" tilewidth=\"32\" tileheight=\"32\">");
+                out.println(" <objectgroup id=\"1\" name=\"lane\">");
+                out.println("  <object id=\"1\" x=\"0\" y=\"0\">");
+                out.println("   <polyline points=\""+String.join(" ", zigzag())+"\"/>");
+                out.println("  </object>");
+                out.println(" </objectgroup>");
+                out.println("</map>");
+            }
+            try (PrintWriter out = new PrintWriter(waves)) {out.println("1,spawn,1,slicer,1000");}
+            try (PrintWriter out = new PrintWriter(levels)) {out.println("1;"+map.getPath()+";"+waves.getPath());}
+            syntheticLevels = LevelData.loadFromFile(levels.getPath());
+        } catch (IOException e) {throw new RuntimeException(e);}
+        return syntheticLevels;
+    }
+
+    // a lane snaking down the map in rows of 45 degree zigzags, entering from the left edge
+    private static List<String> zigzag() {
+        List<String> result = new ArrayList<String>();
+        double step = 30;
+        int perRow = (int)(0.9*MAP_WIDTH/step);
+        for (int i=0; i<SYNTHETIC_POINTS; i++) {
+            int row = i/perRow;
+            int column = (row%2==0) ? i%perRow : perRow-1-i%perRow;
+            double x = column*step;
+            double y = 0.2*MAP_HEIGHT + row*2*step + (i%2)*step;
+            result.add(x+","+y);
+        }
+        return result;
+    }
+}
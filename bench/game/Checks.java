@@ -0,0 +1,437 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+import bagel.util.Point;
+import bagel.util.Rectangle;
+
+import cfg.EnemyData;
+import cfg.LevelData;
+import cfg.TowerData;
+
+/* checks of optimised code paths against straightforward versions of them, without a window
+   run with the benchmarks, in the test phase: mvn -P bench test
+   each check prints its outcome, and the run exits with a failure status if any check fails */
+public class Checks {
+    private static final long SEED = 42;
+    private static final int SAVE_INTERVAL = 25; // steps between the saves compared by replays
+
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        renderOrder();
+        placement();
+        targeting();
+        swarmDrawCap();
+        swarmTargeting();
+        explosions();
+        parallelTowers();
+        parallelEnemies();
+        saveRoundTrip();
+        saveRemovedType();
+        rewind();
+        if (failures>0) {
+            System.err.println(failures+" checks failed");
+            System.exit(1);
+        }
+    }
+
+    // draws are flushed by layer, then texture in order of first submission, then submission order, with custom draws first
+    private static void renderOrder() {
+        String[] textures = {"res/images/tank.png", "res/images/slicer.png", "res/images/supertank.png", "res/images/explosive.png"};
+        SplittableRandom random = new SplittableRandom(SEED);
+        RenderBuffer buffer = new RenderBuffer();
+        RecordingRenderBackend backend = new RecordingRenderBackend();
+        Map<String,Integer> textureIds = new LinkedHashMap<String,Integer>(); // ids outlive a flush, as the buffer's do
+        boolean passed = true;
+        for (int frame=0; frame<20; frame++) {
+            int n = random.nextInt(300);
+            List<long[]> expected = new ArrayList<long[]>(); // layer, texture id, submission index
+            List<String> names = new ArrayList<String>();
+            int textureDraws = 0;
+            for (int i=0; i<n; i++) {
+                int layer = random.nextInt(RenderBuffer.LAYER_UI+1);
+                if (random.nextInt(8)==0) {
+                    buffer.submitCustom(layer, "custom"+i, () -> {});
+                    expected.add(new long[] {layer, 0, i});
+                    names.add("custom"+i);
+                } else {
+                    String texture = textures[random.nextInt(textures.length)];
+                    if (!textureIds.containsKey(texture)) textureIds.put(texture, textureIds.size()+1);
+                    buffer.submit(layer, texture, i, 0, 0);
+                    expected.add(new long[] {layer, textureIds.get(texture), i});
+                    names.add(texture);
+                    textureDraws++;
+                }
+            }
+            expected.sort((a, b) -> a[0]!=b[0] ? Long.compare(a[0], b[0]) : a[1]!=b[1] ? Long.compare(a[1], b[1]) : Long.compare(a[2], b[2]));
+            buffer.flush(backend);
+            passed &= buffer.size()==0 && backend.getCommands().size()==n
+                && backend.getTextureDraws()==textureDraws && backend.getCustomDraws()==n-textureDraws;
+            for (int k=0; passed && k<n; k++) {
+                int i = (int)expected.get(k)[2];
+                double x = backend.getXs().get(k);
+                passed = backend.getCommands().get(k).equals(names.get(i)) && (expected.get(k)[1]==0 ? Double.isNaN(x) : x==i);
+            }
+            backend.clear();
+        }
+        // a flushed buffer has nothing left to draw
+        buffer.flush(backend);
+        passed &= backend.getCommands().isEmpty();
+        report("render order and counts", passed);
+    }
+
+    // the placement grid gives the same answer as testing a tower's bounding box against every panel, and for ground
+    // towers every lane box and tower, as placement was checked before the grid; positions run past the map's edges
+    private static void placement() {
+        SimulationEngine sim = BenchmarkWorld.create(BenchmarkWorld.SHIPPED, 0, 40);
+        List<Rectangle> panels = Arrays.asList(new Rectangle(0, 0, sim.getWidth(), 100), new Rectangle(0, sim.getHeight()-25, sim.getWidth(), 25));
+        sim.setPanelBounds(panels);
+        List<Rectangle> laneBoxes = PathingManager.laneBoxes(sim.getLane().getPoints());
+        List<Rectangle> towers = new ArrayList<Rectangle>();
+        for (int i=0; i<sim.towers.size(); i++) towers.add(sim.towers.at(i).body.getBoundingBoxAtPosition());
+        int mismatches = 0;
+        int positions = 0;
+        for (TowerData data : Tower.DATA.values()) {
+            Body body = new Body(data.spritePath);
+            for (double y=-40; y<sim.getHeight()+40; y+=1.25) {
+                for (double x=-40; x<sim.getWidth()+40; x+=1.25) {
+                    body.setPosition(x, y);
+                    Rectangle bounds = body.getBoundingBoxAtPosition();
+                    boolean exact = !PathingManager.collisionCheck(bounds, panels)
+                        && (data.isAirSupport || !PathingManager.collisionCheck(bounds, laneBoxes) && !PathingManager.collisionCheck(bounds, towers));
+                    positions++;
+                    if (Tower.getValidPlacement(sim, bounds, data.isAirSupport)!=exact) mismatches++;
+                }
+            }
+        }
+        report("placement grid against testing every rectangle ("+mismatches+" of "+positions+" positions differ)", mismatches==0);
+    }
+
+    // the progress index chooses the same target as a scan over every Enemy, under every strategy; some enemies are
+    // placed exactly at the ends of a tower's coverage, where rounding decides whether they are in range, and some have
+    // yet to enter the lane, so are placed at its start
+    private static void targeting() {
+        String[] strategies = {TowerData.FIRST, TowerData.LAST, TowerData.STRONGEST, TowerData.CLOSEST};
+        String[] types = Enemy.DATA.keySet().toArray(new String[0]);
+        SplittableRandom random = new SplittableRandom(SEED);
+        NavigableMap<Integer,LevelData> levels = BenchmarkWorld.levels(BenchmarkWorld.SHIPPED);
+        int mismatches = 0;
+        int queries = 0;
+        for (int world=0; world<20; world++) {
+            SimulationEngine sim = new SimulationEngine(levels, world);
+            Lane lane = sim.getLane();
+            for (int i=random.nextInt(500); i>=0; i--) {
+                Enemy e = Enemy.addEnemy(sim, types[random.nextInt(types.length)], random.nextDouble()*lane.getLength());
+                e.damage(random.nextInt(3));
+            }
+            for (int i=random.nextInt(20); i>=0; i--) Enemy.addEnemy(sim, types[random.nextInt(types.length)], -random.nextDouble()*200);
+            for (int step=0; step<30; step++) {
+                for (int q=0; q<40; q++) {
+                    double x = random.nextDouble()*sim.getWidth();
+                    double y = random.nextDouble()*sim.getHeight();
+                    double range = 50+random.nextDouble()*200;
+                    int targeting = TowerData.targetingFromName(strategies[random.nextInt(strategies.length)]);
+                    double[] coverage = lane.coverage(x, y, range);
+                    if (coverage.length>0 && random.nextInt(4)==0) {
+                        Enemy.addEnemy(sim, types[random.nextInt(types.length)], coverage[random.nextInt(2)]);
+                        sim.progressIndex.invalidate();
+                    }
+                    Enemy chosen = sim.progressIndex.target(sim, coverage, targeting, x, y, range);
+                    Enemy best = null;
+                    double bestScore = Double.NEGATIVE_INFINITY;
+                    for (int i=0; i<sim.enemies.size(); i++) {
+                        Enemy e = sim.enemies.at(i);
+                        double d = e.body.getDistanceSquaredFrom(x, y);
+                        if (d>=range*range) continue;
+                        double score = ProgressIndex.score(targeting, e.getHealth(), e.getDistance(), d, lane.getLength());
+                        if (best==null || score>bestScore) {best = e; bestScore = score;}
+                    }
+                    queries++;
+                    if (best==null ? chosen!=null : chosen==null || ProgressIndex.score(targeting, chosen.getHealth(), chosen.getDistance(),
+                        chosen.body.getDistanceSquaredFrom(x, y), lane.getLength())!=bestScore) mismatches++;
+                    if (chosen!=null && random.nextInt(5)==0) chosen.damage(1);
+                }
+                Enemy.updateAll(sim, 0.05);
+            }
+        }
+        report("targeting against a scan of every enemy ("+mismatches+" of "+queries+" queries differ)", mismatches==0);
+    }
+
+    // swarms share the draw cap, and each is still drawn when there are more swarms than the cap
+    private static void swarmDrawCap() {
+        RenderBuffer buffer = new RenderBuffer();
+        RecordingRenderBackend backend = new RecordingRenderBackend();
+        boolean passed = true;
+        for (int swarms : new int[] {1, 3, Swarm.MAX_DRAWS-1, Swarm.MAX_DRAWS+1, 2*Swarm.MAX_DRAWS+5}) {
+            SimulationEngine sim = BenchmarkWorld.create(BenchmarkWorld.SHIPPED);
+            // the middle of the lane, which is on the map
+            double start = 0.2*sim.getLane().getLength();
+            double spacing = 0.6*sim.getLane().getLength()/swarms;
+            for (int s=0; s<swarms; s++) {
+                Swarm swarm = null;
+                for (int m=0; m<1000/swarms+2; m++) swarm = Swarm.spawn(sim, swarm, "slicer", start+s*spacing);
+            }
+            Swarm.renderAll(sim, buffer);
+            buffer.flush(backend);
+            int draws = backend.getTextureDraws();
+            passed &= draws>=Math.min(swarms, Swarm.MAX_DRAWS) && draws<=Math.max(swarms, Swarm.MAX_DRAWS);
+            backend.clear();
+        }
+        report("swarm draws within the cap, at least one per swarm", passed);
+    }
+
+    // swarm targeting and bomb damage match a scan over every member, including once members behind the lead have died
+    // and the survivors have moved on, leaving dead members among the living; some members have yet to enter the lane
+    private static void swarmTargeting() {
+        String[] strategies = {TowerData.FIRST, TowerData.LAST, TowerData.STRONGEST, TowerData.CLOSEST};
+        SplittableRandom random = new SplittableRandom(SEED);
+        int mismatches = 0;
+        int queries = 0;
+        for (int trial=0; trial<10; trial++) {
+            SimulationEngine sim = BenchmarkWorld.create(BenchmarkWorld.SHIPPED);
+            Lane lane = sim.getLane();
+            int members = 300+random.nextInt(300);
+            Swarm swarm = null;
+            double distance = 0.5*lane.getLength();
+            for (int id=0; id<members; id++) {
+                swarm = Swarm.spawn(sim, swarm, "apexslicer", distance);
+                distance -= random.nextInt(4); // some members share a distance
+            }
+            int maxHealth = swarm.getData().maxHealth;
+            int from = 1+random.nextInt(members/4);
+            int to = from+random.nextInt(members/2);
+            for (int id=from; id<to; id++) swarm.damage(id, maxHealth);
+            for (int id=0; id<members; id++) {
+                if (random.nextInt(4)==0) swarm.damage(id, 1+random.nextInt(maxHealth));
+            }
+            Body probe = new Body(swarm.getData().spritePath);
+            boolean[] alive = new boolean[members];
+            int[] expected = new int[members]; // health after a bomb, for members alive before it
+            for (int step=0; step<150 && swarm.countAlive()>0; step++) {
+                Swarm.updateAll(sim, 0.05);
+                if (step%10!=0) continue;
+                for (int q=0; q<30; q++) {
+                    // centred on a living member half the time, so queries find members among dead ones
+                    int on = random.nextInt(members);
+                    Body at = random.nextBoolean() && swarm.isAlive(on) ? swarm.bodyOf(lane, on) : null;
+                    double x = at!=null ? at.getX() : random.nextDouble()*sim.getWidth();
+                    double y = at!=null ? at.getY() : random.nextDouble()*sim.getHeight();
+                    double range = 10+random.nextDouble()*150;
+                    int targeting = TowerData.targetingFromName(strategies[random.nextInt(strategies.length)]);
+                    int chosen = swarm.target(lane, lane.coverage(x, y, range), targeting, x, y, range, probe);
+                    int best = Swarm.NO_MEMBER;
+                    double bestScore = Double.NEGATIVE_INFINITY;
+                    for (int id=0; id<members; id++) {
+                        alive[id] = swarm.isAlive(id);
+                        if (!alive[id]) continue;
+                        double d = swarm.bodyOf(lane, id).getDistanceSquaredFrom(x, y);
+                        expected[id] = swarm.healthOf(id)-(d<range*range ? 1 : 0);
+                        if (d>=range*range) continue;
+                        double score = ProgressIndex.score(targeting, swarm.healthOf(id), swarm.distanceOf(id), d, lane.getLength());
+                        if (best==Swarm.NO_MEMBER || score>bestScore) {best = id; bestScore = score;}
+                    }
+                    queries++;
+                    if (best==Swarm.NO_MEMBER ? chosen!=Swarm.NO_MEMBER : chosen==Swarm.NO_MEMBER || ProgressIndex.score(targeting, swarm.healthOf(chosen),
+                        swarm.distanceOf(chosen), swarm.bodyOf(lane, chosen).getDistanceSquaredFrom(x, y), lane.getLength())!=bestScore) mismatches++;
+                    Swarm.damageWithinRangeOf(sim, x, y, range, 1);
+                    for (int id=0; id<members; id++) {
+                        if (alive[id] && swarm.healthOf(id)!=expected[id]) {mismatches++; break;}
+                    }
+                }
+            }
+        }
+        report("swarm targeting and damage against a scan of every member ("+mismatches+" of "+queries+" queries differ)", mismatches==0);
+    }
+
+    // explosions resolved together in one pass over the grid deal the same damage as each bomb scanning every Enemy
+    private static void explosions() {
+        SplittableRandom random = new SplittableRandom(SEED);
+        NavigableMap<Integer,LevelData> levels = BenchmarkWorld.levels(BenchmarkWorld.SHIPPED);
+        int mismatches = 0;
+        for (int trial=0; trial<50; trial++) {
+            SimulationEngine together = new SimulationEngine(levels, trial);
+            SimulationEngine each = new SimulationEngine(levels, trial);
+            for (int i=0; i<500; i++) {
+                double distance = random.nextDouble()*together.getLane().getLength();
+                Enemy.addEnemy(together, "apexslicer", distance);
+                Enemy.addEnemy(each, "apexslicer", distance);
+            }
+            for (int b=random.nextInt(20); b>=0; b--) {
+                double x = random.nextDouble()*together.getWidth();
+                double y = random.nextDouble()*together.getHeight();
+                double range = 50+random.nextDouble()*200;
+                int damage = 1+random.nextInt(3);
+                together.explosions.add(x, y, range, damage);
+                for (int i=0; i<each.enemies.size(); i++) {
+                    Enemy e = each.enemies.at(i);
+                    if (e.body.getDistanceSquaredFrom(x, y)<range*range) e.damage(damage);
+                }
+            }
+            together.explosions.resolve(together);
+            for (int i=0; i<together.enemies.size(); i++) {
+                if (together.enemies.at(i).getHealth()!=each.enemies.at(i).getHealth()) mismatches++;
+            }
+        }
+        report("explosions against per-bomb damage ("+mismatches+" enemies differ)", mismatches==0);
+    }
+
+    // choosing tower targets in parallel leaves the same state as choosing them on one thread
+    private static void parallelTowers() {
+        List<byte[]> sequential = replay(2000, 500, 600, sim -> sim.setTowerParallelThreshold(Integer.MAX_VALUE));
+        List<byte[]> parallel = replay(2000, 500, 600, sim -> sim.setTowerParallelThreshold(0));
+        report("parallel tower targeting against sequential", sameSaves(sequential, parallel));
+    }
+
+    // moving enemies in parallel chunks leaves the same state as moving them on one thread
+    private static void parallelEnemies() {
+        int enemies = 5*Enemy.CHUNK_SIZE;
+        List<byte[]> sequential = replay(enemies, 200, 300, sim -> sim.setEnemyParallelThreshold(Integer.MAX_VALUE));
+        List<byte[]> parallel = replay(enemies, 200, 300, sim -> sim.setEnemyParallelThreshold(0));
+        report("parallel enemy movement against sequential", sameSaves(sequential, parallel));
+    }
+
+    // a restored save is saved identically, and continues exactly as the simulation it was taken from
+    private static void saveRoundTrip() {
+        NavigableMap<Integer,LevelData> levels = BenchmarkWorld.levels(BenchmarkWorld.SHIPPED);
+        SimulationEngine sim = BenchmarkWorld.createSwarm(BenchmarkWorld.SHIPPED, 1000, 100);
+        String[] types = Enemy.DATA.keySet().toArray(new String[0]);
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int i=0; i<2000; i++) Enemy.addEnemy(sim, types[i%types.length], random.nextDouble()*0.8*sim.getLane().getLength());
+        Point[] airplanes = BenchmarkWorld.randomPoints(sim, 10);
+        sim.startNextWave();
+        boolean passed = true;
+        // cut at uneven points, with projectiles and bombs in flight
+        for (int cut=0; cut<airplanes.length; cut++) {
+            for (int i=0; i<SAVE_INTERVAL+7*cut; i++) sim.tick(SimulationEngine.STEP_TIME);
+            Tower.addTower(sim, "airsupport", airplanes[cut]);
+            byte[] saved = Snapshot.save(sim);
+            SimulationEngine restored = Snapshot.load(levels, saved);
+            passed &= Arrays.equals(saved, Snapshot.save(restored));
+            for (int i=0; i<SAVE_INTERVAL; i++) {
+                sim.tick(SimulationEngine.STEP_TIME);
+                restored.tick(SimulationEngine.STEP_TIME);
+            }
+            passed &= Arrays.equals(Snapshot.save(sim), Snapshot.save(restored));
+        }
+        report("save, load and continue against the original", passed);
+    }
+
+    // an Enemy whose type was removed from the data files cannot be saved, and says so
+    private static void saveRemovedType() {
+        SimulationEngine sim = BenchmarkWorld.create(BenchmarkWorld.SHIPPED, 10, 0);
+        Map<String,EnemyData> data = Enemy.DATA;
+        Map<String,EnemyData> removed = new LinkedHashMap<String,EnemyData>(data);
+        removed.remove(sim.enemies.at(0).entityName);
+        boolean passed = false;
+        Enemy.DATA = removed;
+        try {
+            Snapshot.save(sim);
+        } catch (IllegalStateException e) {
+            passed = true;
+        } finally {
+            Enemy.DATA = data;
+        }
+        report("saving an enemy of a removed type", passed);
+    }
+
+    // every frame held by a rewind buffer restores to the save taken when it was recorded, including after the ring has
+    // wrapped and dropped old keyframes, and after play resumes from an earlier frame
+    private static void rewind() {
+        NavigableMap<Integer,LevelData> levels = BenchmarkWorld.levels(BenchmarkWorld.SHIPPED);
+        SplittableRandom random = new SplittableRandom(SEED);
+        boolean passed = true;
+        boolean wrapped = false;
+        // uneven capacities and keyframe intervals, so frames end at varied points when the ring wraps
+        int[][] configs = {{40 << 10, 1}, {96 << 10, 3}, {177 << 10, 10}, {256 << 10, 25}};
+        for (int[] config : configs) {
+            SimulationEngine sim = BenchmarkWorld.create(BenchmarkWorld.SHIPPED, 500, 50);
+            RewindBuffer rewind = new RewindBuffer(config[0], config[1]);
+            List<byte[]> saves = new ArrayList<byte[]>(); // every frame recorded and not truncated, oldest first
+            sim.startNextWave();
+            for (int round=0; round<4; round++) {
+                for (int i=0; i<300; i++) {
+                    sim.tick(SimulationEngine.STEP_TIME);
+                    rewind.record(sim);
+                    saves.add(Snapshot.save(sim));
+                }
+                int n = rewind.countFrames();
+                wrapped |= n<saves.size();
+                passed &= n>0;
+                for (int f=0; passed && f<n; f++) passed = Arrays.equals(saves.get(saves.size()-n+f), Snapshot.save(rewind.restore(levels, f)));
+                // resume from an earlier frame, as the game does
+                int resume = random.nextInt(n);
+                rewind.truncateAfter(resume);
+                sim = rewind.restore(levels, resume);
+                saves = new ArrayList<byte[]>(saves.subList(0, saves.size()-n+resume+1));
+            }
+        }
+        report("rewind frames against saves taken when recorded", passed && wrapped && rewindWrap(levels));
+    }
+
+    // keyframes of sizes 1, 1, 1 and then 1.75, 1.75 in a ring of 3: the first large frame overwrites the first two small
+    // ones, the second does not fit after it, and the third small one is left in the end of the ring when it wraps
+    private static boolean rewindWrap (NavigableMap<Integer,LevelData> levels) {
+        SimulationEngine sim = BenchmarkWorld.create(BenchmarkWorld.SHIPPED, 100, 0);
+        int small = Snapshot.save(sim).length;
+        RewindBuffer rewind = new RewindBuffer(3*small+48, 1); // the part lengths before a keyframe take under 16 bytes
+        List<byte[]> saves = new ArrayList<byte[]>();
+        for (int i=0; i<5; i++) {
+            if (i==3) {
+                while (Snapshot.save(sim).length<small*7/4) Enemy.addEnemy(sim, "slicer", 0);
+            }
+            rewind.record(sim);
+            saves.add(Snapshot.save(sim));
+            if (i>=3) Enemy.addEnemy(sim, "slicer", 0); // so the large frames differ
+        }
+        int n = rewind.countFrames();
+        boolean passed = n>0;
+        for (int f=0; passed && f<n; f++) passed = Arrays.equals(saves.get(saves.size()-n+f), Snapshot.save(rewind.restore(levels, f)));
+        return passed;
+    }
+
+    /**
+     * plays the first wave over a populated simulation, adding an airplane now and then, and saves it every few steps
+     *
+     * @param enemies the number of enemies spread along the lane at the start
+     * @param towers the number of ground towers at random positions
+     * @param steps the number of steps to play
+     * @param configure settings applied to the simulation before it is played
+     * @return the saves, in order
+     */
+    private static List<byte[]> replay (int enemies, int towers, int steps, Consumer<SimulationEngine> configure) {
+        SimulationEngine sim = BenchmarkWorld.create(BenchmarkWorld.SHIPPED, enemies, towers);
+        configure.accept(sim);
+        Point[] airplanes = BenchmarkWorld.randomPoints(sim, steps/SAVE_INTERVAL);
+        List<byte[]> result = new ArrayList<byte[]>();
+        sim.startNextWave();
+        for (int i=0; i<steps; i++) {
+            sim.tick(SimulationEngine.STEP_TIME);
+            if (i%SAVE_INTERVAL==0) {
+                Tower.addTower(sim, "airsupport", airplanes[i/SAVE_INTERVAL]);
+                result.add(Snapshot.save(sim));
+            }
+        }
+        return result;
+    }
+
+    private static boolean sameSaves (List<byte[]> a, List<byte[]> b) {
+        if (a.size()!=b.size()) return false;
+        for (int i=0; i<a.size(); i++) {
+            if (!Arrays.equals(a.get(i), b.get(i))) return false;
+        }
+        return true;
+    }
+
+    private static void report (String check, boolean passed) {
+        System.out.println((passed ? "pass  " : "FAIL  ")+check);
+        if (!passed) failures++;
+    }
+}
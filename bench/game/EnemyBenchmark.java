@@ -0,0 +1,78 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import bagel.util.Point;
+
+/* per-frame enemy movement and range queries, over lanes and enemy counts */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnemyBenchmark {
+    private static final double FRAME_TIME = 1e-6; // small enough that no enemy leaves the lane during an iteration
+    private static final double RANGE = 150;
+    private static final int QUERY_POINTS = 1024;
+    private static final int BOMBS_PER_TICK = 16; // several airplanes' bombs landing together at a high timescale
+
+    @Param({"10", "1000", "10000", "100000"})
+    public int enemies;
+
+    @Param({BenchmarkWorld.SHIPPED, BenchmarkWorld.SYNTHETIC})
+    public String lane;
+
+    // 0 moves every count in parallel; the maximum int never does
+    @Param({"0", "2147483647"})
+    public int parallelThreshold;
+
+    private SimulationEngine sim;
+    private Point[] queryPoints;
+    private final List<Enemy> result = new ArrayList<Enemy>();
+    private int query = 0;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        sim = BenchmarkWorld.create(lane, enemies, 0);
+        sim.setEnemyParallelThreshold(parallelThreshold);
+        queryPoints = BenchmarkWorld.randomPoints(sim, QUERY_POINTS);
+    }
+
+    @Benchmark
+    public int updateAll() {
+        Enemy.updateAll(sim, FRAME_TIME);
+        return sim.countEnemies();
+    }
+
+    // includes one grid rebuild per query, as happens for the first query of each frame
+    @Benchmark
+    public int withinRangeOfAfterMove() {
+        sim.enemyGrid.invalidate();
+        Point p = queryPoints[query++ & (QUERY_POINTS-1)];
+        Enemy.withinRangeOf(sim, p.x, p.y, RANGE, result);
+        return result.size();
+    }
+
+    @Benchmark
+    public int withinRangeOf() {
+        Point p = queryPoints[query++ & (QUERY_POINTS-1)];
+        Enemy.withinRangeOf(sim, p.x, p.y, RANGE, result);
+        return result.size();
+    }
+
+    // a tick's worth of bomb explosions, resolved in one pass over the grid
+    @Benchmark
+    public int resolveExplosions() {
+        for (int i=0; i<BOMBS_PER_TICK; i++) {
+            Point p = queryPoints[query++ & (QUERY_POINTS-1)];
+            sim.explosions.add(p.x, p.y, RANGE, 0);
+        }
+        sim.explosions.resolve(sim);
+        return sim.countEnemies();
+    }
+}
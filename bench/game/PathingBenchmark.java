@@ -0,0 +1,68 @@
+package game;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import bagel.util.Point;
+import bagel.util.Rectangle;
+
+/* placement collision and movement math, over lanes */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathingBenchmark {
+    private static final int POINTS = 1024;
+    private static final double TOWER_SIZE = 60;
+    private static final double DIST_MOVED = 10;
+
+    @Param({BenchmarkWorld.SHIPPED, BenchmarkWorld.SYNTHETIC})
+    public String lane;
+
+    private SimulationEngine sim;
+    private Point[] points;
+    private Rectangle[] boxes;
+    private Body mover;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        sim = BenchmarkWorld.create(lane);
+        points = BenchmarkWorld.randomPoints(sim, POINTS);
+        boxes = new Rectangle[POINTS];
+        for (int i=0; i<POINTS; i++) boxes[i] = new Rectangle(points[i].x-TOWER_SIZE/2, points[i].y-TOWER_SIZE/2, TOWER_SIZE, TOWER_SIZE);
+        mover = new Body(Tower.DATA.values().iterator().next().attackSpritePath);
+    }
+
+    @Benchmark
+    public boolean laneCollisionCheck() {
+        return PathingManager.laneCollisionCheck(boxes[next++ & (POINTS-1)], sim.getLane().getPoints());
+    }
+
+    @Benchmark
+    public boolean placementGrid() {
+        return Tower.getValidPlacement(sim, boxes[next++ & (POINTS-1)], false);
+    }
+
+    @Benchmark
+    public Point newPosition() {
+        int i = next++ & (POINTS-1);
+        return PathingManager.newPosition(points[i], points[(i+1) & (POINTS-1)], DIST_MOVED);
+    }
+
+    @Benchmark
+    public double moveTowards() {
+        int i = next++ & (POINTS-1);
+        mover.setPosition(points[i]);
+        PathingManager.moveTowards(mover, points[(i+1) & (POINTS-1)].x, points[(i+1) & (POINTS-1)].y, DIST_MOVED);
+        return mover.getX();
+    }
+
+    @Benchmark
+    public Point lanePositionAt() {
+        return sim.getLane().positionAt((next++ & (POINTS-1))*sim.getLane().getLength()/POINTS);
+    }
+}
@@ -0,0 +1,60 @@
+package game;
+
+import java.util.NavigableMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import cfg.LevelData;
+
+/* saving and restoring a whole simulation, and recording it for rewinding, over entity counts
+   a tenth of the entities are towers, and a wave is run briefly so projectiles are in flight */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+    private static final int WARM_STEPS = 40;
+
+    @Param({"1000", "10000"})
+    public int entities;
+
+    private NavigableMap<Integer,LevelData> levels;
+    private SimulationEngine sim;
+    private SimulationEngine next; // the same simulation a step later
+    private byte[] saved;
+    private RewindBuffer rewind;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        levels = BenchmarkWorld.levels(BenchmarkWorld.SHIPPED);
+        sim = BenchmarkWorld.create(BenchmarkWorld.SHIPPED, entities*9/10, entities/10);
+        sim.startNextWave();
+        for (int i=0; i<WARM_STEPS; i++) sim.tick(SimulationEngine.STEP_TIME);
+        saved = Snapshot.save(sim);
+        next = Snapshot.load(levels, saved);
+        next.tick(SimulationEngine.STEP_TIME);
+        rewind = new RewindBuffer(RewindBuffer.DEFAULT_CAPACITY, Integer.MAX_VALUE);
+        rewind.record(sim);
+    }
+
+    @Benchmark
+    public byte[] save() {
+        return Snapshot.save(sim);
+    }
+
+    @Benchmark
+    public SimulationEngine load() {
+        return Snapshot.load(levels, saved);
+    }
+
+    // consecutive steps are recorded in turn, so each call stores two deltas
+    @Benchmark
+    public int record() {
+        rewind.record(next);
+        rewind.record(sim);
+        return rewind.countFrames();
+    }
+}
@@ -0,0 +1,58 @@
+package game;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/* per-frame swarm movement, targeting and drawing, over swarm sizes */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SwarmBenchmark {
+    private static final double FRAME_TIME = 1e-6; // small enough that no member leaves the lane during an iteration
+    private static final double RELOAD_TIME = 10; // longer than any tower's attack interval, so every tower fires each call
+    private static final int TOWERS = 50;
+
+    @Param({"1000", "100000", "1000000"})
+    public int members;
+
+    @Param({BenchmarkWorld.SHIPPED, BenchmarkWorld.SYNTHETIC})
+    public String lane;
+
+    private SimulationEngine sim;
+    private final RenderBuffer buffer = new RenderBuffer();
+    private final RecordingRenderBackend backend = new RecordingRenderBackend();
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        sim = BenchmarkWorld.createSwarm(lane, members, TOWERS);
+    }
+
+    @Benchmark
+    public int updateAll() {
+        Swarm.updateAll(sim, FRAME_TIME);
+        return sim.countEnemies();
+    }
+
+    // towers aim at swarm members; projectiles fired are discarded so each call targets afresh
+    @Benchmark
+    public int target() {
+        Tower.updateAll(sim, RELOAD_TIME);
+        int fired = sim.projectiles.size();
+        sim.projectiles.clear();
+        return fired;
+    }
+
+    // draws are capped, so this should stay flat as the swarm grows
+    @Benchmark
+    public int renderAll() {
+        Swarm.renderAll(sim, buffer);
+        buffer.flush(backend);
+        int draws = backend.getTextureDraws();
+        backend.clear();
+        return draws;
+    }
+}
@@ -0,0 +1,47 @@
+package game;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/* per-frame tower targeting, firing and projectile tracking, over tower and enemy counts */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TowerBenchmark {
+    private static final double FRAME_TIME = 1.0/75;
+
+    @Param({"1", "50", "500"})
+    public int towers;
+
+    @Param({"10", "1000", "100000"})
+    public int enemies;
+
+    @Param({BenchmarkWorld.SHIPPED, BenchmarkWorld.SYNTHETIC})
+    public String lane;
+
+    private SimulationEngine sim;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        sim = BenchmarkWorld.create(lane, enemies, towers);
+    }
+
+    // enemies are left in place, but the grid is rebuilt as it would be after they move each frame
+    @Benchmark
+    public int updateAll() {
+        sim.enemyGrid.invalidate();
+        Tower.updateAll(sim, FRAME_TIME);
+        return sim.projectiles.size();
+    }
+
+    // one full frame: wave spawning, towers, then enemy movement and deaths
+    @Benchmark
+    public int tick() {
+        sim.tick(FRAME_TIME);
+        return sim.countEnemies();
+    }
+}
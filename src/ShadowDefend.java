@@ -1,10 +1,10 @@
-import java.util.List;
+import java.io.IOException;
 import java.util.NavigableMap;
+import java.util.SplittableRandom;
 import bagel.AbstractGame;
 import bagel.Input;
 import bagel.Keys;
 import bagel.map.TiledMap;
-import bagel.util.Point;
 import bagel.Window;
 import cfg.*;
 import game.*;
@@ -13,104 +13,199 @@ public class ShadowDefend extends AbstractGame {
     // configuration
     private static final int FRAME_RATE = 75; // Hz
     private static final double TIMESCALE_STEP = 1.0;
+    private static final double FAST_TIMESCALE_STEP = 5.0; // used from FAST_TIMESCALE upwards
+    private static final double FAST_TIMESCALE = 5.0;
     private static final double MIN_TIMESCALE = 1.0;
-    private static final double MAX_TIMESCALE = 5.0;
+    private static final double MAX_TIMESCALE = 50.0;
+    private static final long SIMULATION_BUDGET_NANOS = 8_000_000; // of the 13.3ms frame, the rest is for drawing
+    private static final String PROFILE_CSV_PATH = "profile.csv";
+    private static final int MEGABYTE = 1 << 20;
 
     // status string constants
     private static final String WINNER_STATUS = "Winner!";
     private static final String PLACING_STATUS = "Placing";
     private static final String WAVE_IN_PROGRESS_STATUS = "Wave In Progress";
     private static final String AWAITING_STATUS = "Awaiting Start";
+    private static final String INSTANT_AWAITING_STATUS = "Awaiting Instant Start";
+    private static final String REWIND_STATUS = "Rewind";
     
     // state storage
-    private final NavigableMap<Integer,LevelData> levels = LevelData.loadFromFile();
+    private final NavigableMap<Integer,LevelData> levels;
+    private SimulationEngine sim; // replaced when play resumes from an earlier frame
     private final double frameTime = 1.0/FRAME_RATE;
     private TiledMap map;
-    private List<Point> lane;
-    private NavigableMap<Integer,List<EventData>> waves;
-    private Wave currentWave = new Wave();
-    private int waveNum = 0;
-    private boolean waveRewardGiven = false;
+    private int mapLevelNum;
+    private TiledMap nextMap = null; // the next level's map, built ahead of time on an idle frame
+    private String nextMapPath = null;
     private double timescale = 1.0;
     private boolean timescaleAdjusting = false;
+    private String status = AWAITING_STATUS;
+
+    // instant mode: S resolves waves at once instead of playing them out
+    private final int instantWaves;
+    private boolean instantMode = false;
+
+    // rendering: draws are buffered during the frame and flushed once at the end of it
+    private final RenderBuffer renderBuffer = new RenderBuffer();
+    private final BagelRenderBackend renderBackend = new BagelRenderBackend();
+    private final Runnable drawMap = this::drawMap;
+    private final Runnable drawPanels = this::drawPanels;
+
+    // profiling: phases are always timed, the overlay and CSV export are toggled together
+    private final FrameProfiler profiler = new FrameProfiler();
+    private boolean profilerVisible = false;
+    private boolean profilerToggling = false;
+
+    // hot reloading of enemy, tower and wave data; null if the files cannot be watched
+    private DataReloader reloader = null;
+
+    // rewinding: every frame is recorded, and play can be paused on an earlier one and resumed from it; null if disabled
+    private final RewindBuffer rewind;
+    private int rewindFrame = -1; // the frame shown while paused, or -1 during play
     
-    /* entry point for Bagel game */
+    /* entry point for Bagel game
+       an optional seed argument replays a previous run's random behaviour,
+       an optional second argument sets how many waves each instant start resolves,
+       and an optional third argument sets the megabytes kept for rewinding, 0 disabling it */
     public static void main(String[] args) {
         // create new instance of game and run it
-        new ShadowDefend().run();
+        long seed = args.length>0 ? Long.parseLong(args[0]) : new SplittableRandom().nextLong();
+        int instantWaves = args.length>1 ? Integer.parseInt(args[1]) : 1;
+        int rewindBytes = args.length>2 ? Integer.parseInt(args[2])*MEGABYTE : RewindBuffer.DEFAULT_CAPACITY;
+        new ShadowDefend(seed, instantWaves, rewindBytes).run();
     }
 
     /* game setup */
-    public ShadowDefend() {
-        loadNextLevel();
+    public ShadowDefend(long seed, int ninstantWaves, int rewindBytes) {
+        instantWaves = ninstantWaves;
+        rewind = rewindBytes>0 ? new RewindBuffer(rewindBytes, RewindBuffer.DEFAULT_KEYFRAME_INTERVAL) : null;
+        levels = LevelData.loadFromFile();
+        LevelData.preloadAll(levels.values());
+        sim = new SimulationEngine(levels, seed);
+        try {
+            reloader = new DataReloader(levels.values());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        configureSimulation();
+        loadMap();
     }
     
     /* per-frame game state update */
     @Override
     protected void update(Input input) {
-        map.draw(0, 0, 0, 0, Window.getWidth(), Window.getHeight());
+        profiler.begin(FrameProfiler.PHASE_FRAME);
+        if (reloader!=null) reloader.applyPending(sim);
 
-        // update spawn and wave progress
-        currentWave.updateAll(frameTime*timescale, lane);
-        // update towers and attacks
-        if (!Player.getInstance().isSuspended()) Tower.updateAll(frameTime*timescale);
-        // update enemy movement, death andååå penalties
-        Enemy.updateAll(frameTime*timescale);
+        // advance the simulation in fixed steps within the CPU budget, unless paused on an earlier frame,
+        // and reload the map if it has moved on to another level
+        if (rewindFrame<0) {
+            int steps = sim.advance(frameTime*timescale, SIMULATION_BUDGET_NANOS);
+            if (rewind!=null && steps>0) rewind.record(sim);
+        }
+        boolean mapLoaded = false;
+        if (sim.getLevelNum()!=mapLevelNum) {
+            timescale = 1.0;
+            loadMap();
+            mapLoaded = true;
+        }
+
+        // draw map, towers, projectiles and enemies
+        profiler.begin(FrameProfiler.PHASE_SUBMIT);
+        renderBuffer.submitCustom(RenderBuffer.LAYER_MAP, "map", drawMap);
+        sim.renderEntities(renderBuffer);
 
         // finally, check status and draw UI
-        String status = AWAITING_STATUS;
-        if (Enemy.countAllInstances()!=0) {status = WAVE_IN_PROGRESS_STATUS;}
+        Player player = sim.getPlayer();
+        status = instantMode ? INSTANT_AWAITING_STATUS : AWAITING_STATUS;
+        if (sim.countEnemies()!=0) {status = WAVE_IN_PROGRESS_STATUS;}
         if (UI.getInstance().getSelectionActive()) {status = PLACING_STATUS;}
-        if (Player.getInstance().isWinner()) {status = WINNER_STATUS;}
-        UI.getInstance().drawBuy(Player.getInstance().getMoney());
-        UI.getInstance().drawStatus(waveNum, timescale, status, Player.getInstance().getLives());
-        UI.getInstance().updateMouse(input, lane);
-
-        // level progress, wave reward, win/lose condition
-        if (Player.getInstance().isLoser()) {Window.close();}
-        if (currentWave.isComplete() & Enemy.countAllInstances()==0) {
-            // level completion/winning
-            if (waves.isEmpty()) {
-                if (levels.isEmpty()) Player.getInstance().win(); // YOU WIN
-                else {
-                    Tower.resetAll();
-                    Player.getInstance().resetState();
-                    timescale = 1.0;
-                    waveNum = 0;
-                    loadNextLevel();
-                }
-            // wave completion reward
-            } else if (!waveRewardGiven) {
-                Player.getInstance().reward(Wave.waveCompleteReward(waveNum));
-                waveNum++;
-                waveRewardGiven = true;
-            }
+        if (player.isWinner()) {status = WINNER_STATUS;}
+        if (rewindFrame>=0) {status = REWIND_STATUS+" "+(rewindFrame+1-rewind.countFrames());}
+        // the next map's textures have to be uploaded on this thread, so it is built on the first frame the player is
+        // between waves once its level is preloaded, and not on a frame that already loaded a map. what is left of the
+        // level load on this frame is Bagel parsing the map file, already read once by the preload, and decoding and
+        // uploading its tilesets: a one-off hitch while idle, rather than at the level change
+        boolean idle = status.equals(AWAITING_STATUS) | status.equals(INSTANT_AWAITING_STATUS);
+        if (idle && !mapLoaded && nextMap==null && sim.getNextMapPath()!=null && sim.isNextLevelPreloaded()) {
+            nextMapPath = sim.getNextMapPath();
+            nextMap = new TiledMap(nextMapPath);
+        }
+        renderBuffer.submitCustom(RenderBuffer.LAYER_UI, "panels", drawPanels);
+        profiler.end(FrameProfiler.PHASE_SUBMIT);
+        profiler.begin(FrameProfiler.PHASE_MOUSE);
+        if (rewindFrame<0) UI.getInstance().updateMouse(input, sim, renderBuffer);
+        profiler.end(FrameProfiler.PHASE_MOUSE);
+        profiler.begin(FrameProfiler.PHASE_FLUSH);
+        renderBuffer.flush(renderBackend);
+        profiler.end(FrameProfiler.PHASE_FLUSH);
+
+        profiler.end(FrameProfiler.PHASE_FRAME);
+        profiler.endFrame(sim);
+
+        // lose condition
+        if (player.isLoser()) {
+            profiler.stopCsv();
+            Window.close();
         }
 
         // exit shortcut
         if (input.isDown(Keys.ESCAPE)) {
+            profiler.stopCsv();
             Window.close();
         }
 
-        // prevent key detection in suspended state
-        if (Player.getInstance().isSuspended()) return;
-
-        // advance wave
-        if (input.isDown(Keys.S)) {
-            // load new wave is current wave is complete and no enemies are left
-            if (currentWave.isComplete() & !waves.isEmpty() & Enemy.countAllInstances()==0) {
-                currentWave = new Wave(waves.pollFirstEntry().getValue());
-                waveRewardGiven = false;
+        // profiler overlay and CSV export toggle
+        if (input.isDown(Keys.P)) {
+            if (!profilerToggling) {
+                profilerVisible = !profilerVisible;
+                if (profilerVisible) profiler.startCsv(PROFILE_CSV_PATH);
+                else profiler.stopCsv();
+            }
+            profilerToggling = true;
+        }
+        if (input.isUp(Keys.P)) {
+            profilerToggling = false;
+        }
+
+        // rewinding: stepping or seeking back pauses play on an earlier frame, until it is resumed from there
+        if (rewind!=null && rewind.countFrames()>0) {
+            int shown = rewindFrame<0 ? rewind.countFrames()-1 : rewindFrame;
+            int frame = shown;
+            if (input.wasPressed(Keys.LEFT)) frame--;
+            if (input.wasPressed(Keys.RIGHT)) frame++;
+            if (input.wasPressed(Keys.DOWN)) frame -= FRAME_RATE;
+            if (input.wasPressed(Keys.UP)) frame += FRAME_RATE;
+            frame = Math.max(0, Math.min(rewind.countFrames()-1, frame));
+            if (frame!=shown) showFrame(frame);
+            if (input.wasPressed(Keys.R) && rewindFrame>=0) {
+                rewind.truncateAfter(rewindFrame);
+                rewindFrame = -1;
             }
+            if (rewindFrame>=0) return;
+        }
+
+        // prevent key detection in suspended state
+        if (player.isSuspended()) return;
+
+        // instant mode toggle
+        if (input.wasPressed(Keys.F)) instantMode = !instantMode;
+
+        // advance wave, if current wave is complete and no enemies are left
+        // in instant mode, resolve it and the following waves within this frame, once per press
+        if (instantMode) {
+            if (input.wasPressed(Keys.S)) sim.resolveWaves(instantWaves);
+        } else if (input.isDown(Keys.S)) {
+            sim.startNextWave();
         }
 
         // timescale adjustment
         if (input.isDown(Keys.K)) {
-            if (!timescaleAdjusting) timescale = Math.max(MIN_TIMESCALE, timescale-TIMESCALE_STEP);
+            if (!timescaleAdjusting) timescale = Math.max(MIN_TIMESCALE, timescale-(timescale>FAST_TIMESCALE ? FAST_TIMESCALE_STEP : TIMESCALE_STEP));
             timescaleAdjusting = true;
         }
         if (input.isDown(Keys.L)) {
-            if (!timescaleAdjusting) timescale = Math.min(MAX_TIMESCALE, timescale+TIMESCALE_STEP);
+            if (!timescaleAdjusting) timescale = Math.min(MAX_TIMESCALE, timescale+(timescale>=FAST_TIMESCALE ? FAST_TIMESCALE_STEP : TIMESCALE_STEP));
             timescaleAdjusting = true;
         }
         if (input.isUp(Keys.K) & input.isUp(Keys.L)) {
@@ -118,11 +213,45 @@ public class ShadowDefend extends AbstractGame {
         }
     }
 
-    // loads the next level in the stored levels Map
-    private void loadNextLevel () {
-        LevelData l = levels.pollFirstEntry().getValue();
-        waves = l.waves;
-        map = new TiledMap(l.mapPath);
-        lane = map.getAllPolylines().get(0);
+    // pauses play on a recorded frame, restoring the simulation as it was then
+    private void showFrame (int frame) {
+        rewindFrame = frame;
+        sim = rewind.restore(levels, frame);
+        configureSimulation();
+    }
+
+    // applies the client's settings, which are not part of the simulation's saved state
+    private void configureSimulation() {
+        sim.setPlayAreaTop(UI.getInstance().getBuyPanelHeight());
+        sim.setPanelBounds(UI.getInstance().getPanelBounds());
+        sim.setProfiler(profiler);
+    }
+
+    // draws the map, as a custom render command
+    private void drawMap() {
+        profiler.begin(FrameProfiler.PHASE_MAP);
+        map.draw(0, 0, 0, 0, Window.getWidth(), Window.getHeight());
+        profiler.end(FrameProfiler.PHASE_MAP);
+    }
+
+    // draws the buy and status panels, as a custom render command
+    private void drawPanels() {
+        profiler.begin(FrameProfiler.PHASE_PANELS);
+        UI.getInstance().drawBuy(sim.getPlayer().getMoney());
+        UI.getInstance().drawStatus(sim.getWaveNum(), timescale, status, sim.getPlayer().getLives());
+        if (profilerVisible) UI.getInstance().drawProfile(profiler.getOverlayLines());
+        if (reloader!=null && reloader.getMessage()!=null) UI.getInstance().drawMessage(reloader.getMessage(), reloader.isMessageError());
+        profiler.end(FrameProfiler.PHASE_PANELS);
+    }
+
+    // switches to the map of the level the simulation is currently on, building it unless it was built ahead of time
+    private void loadMap() {
+        renderBackend.releaseAll();
+        TextureCache.evictUnused();
+        if (nextMap!=null && sim.getMapPath().equals(nextMapPath)) map = nextMap;
+        else map = new TiledMap(sim.getMapPath());
+        nextMap = null;
+        nextMapPath = null;
+        mapLevelNum = sim.getLevelNum();
     }
 }
\ No newline at end of file
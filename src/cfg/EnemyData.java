@@ -5,7 +5,7 @@ import java.util.TreeMap;
 
 /* represents the data regarding a single enemy type */
 public class EnemyData extends CSVReader {
-    private static final String DATA_PATH = "res/enemies.csv";
+    public static final String DATA_PATH = "res/enemies.csv";
 
     /**
      * parses enemy data according to the preset enemy data filepath
@@ -9,8 +9,19 @@ import java.util.TreeMap;
 public class EventData extends CSVReader {
     public static final String SPAWN = "spawn";
     public static final String DELAY = "delay";
+    public static final String STREAM = "stream"; // spawns like SPAWN, alongside the events after it
     // event type ordering
-    private static final String[] EVENT_TYPES = {SPAWN, DELAY};
+    private static final String[] EVENT_TYPES = {SPAWN, DELAY, STREAM};
+
+    /**
+     * returns whether an event type spawns enemies
+     *
+     * @param eventType the number representing the event type
+     * @return whether events of the type have an enemy type and amount to spawn
+     */
+    public static boolean isSpawning(int eventType) {
+        return eventType==eventTypeFromName(SPAWN) || eventType==eventTypeFromName(STREAM);
+    }
 
     /**
      * returns the number representing the event type, from an event's name
@@ -25,7 +36,9 @@ public class EventData extends CSVReader {
 
     /**
      * parses event data according to the given waves filepath
-     * format: waveNum,eventName,numToSpawn,typeToSpawn,interval
+     * format: waveNum,eventName,numToSpawn,typeToSpawn,interval, or waveNum,delay,interval
+     * spawn and delay events run one after another; a stream event starts where the next event would,
+     * but does not hold back the events after it, so they run alongside it
      *
      * @param filePath the waves file to be parsed
      * @return a Map with waveNum as key and list of EventData as value, in the same order as the CSV
@@ -36,10 +49,10 @@ public class EventData extends CSVReader {
             int i = 0;
             int nwaveNum = Integer.parseInt(ss[i++]);
             int neventType = eventTypeFromName(ss[i++]);
-            // if event is a spawn event, scan for enemy type and amount to spawn
+            // if event is a spawn or stream event, scan for enemy type and amount to spawn
             int nnumToSpawn = 1;
             String nenemyToSpawn = "";
-            if (neventType==eventTypeFromName(EventData.SPAWN)) {
+            if (isSpawning(neventType)) {
                 nnumToSpawn = Integer.parseInt(ss[i++]);
                 nenemyToSpawn = ss[i++];
             }
@@ -64,7 +77,7 @@ public class EventData extends CSVReader {
     public final double interval;
 
     // constructor
-    private EventData(int neventType, int nnumToSpawn, String nenemyToSpawn, double ninterval) {
+    EventData(int neventType, int nnumToSpawn, String nenemyToSpawn, double ninterval) {
         eventType = neventType;
         numToSpawn = nnumToSpawn;
         enemyToSpawn = nenemyToSpawn;
@@ -0,0 +1,49 @@
+package cfg;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* reads image dimensions straight from a PNG header, without decoding the image
+   lets collision bounds be computed without a window or graphics context */
+public abstract class ImageHeader {
+    private static final long PNG_SIGNATURE = 0x89504E470D0A1A0AL;
+
+    // dimensions of every image read so far, keyed by file path
+    private static final Map<String,double[]> cache = new ConcurrentHashMap<String,double[]>();
+
+    /**
+     * returns the width of a PNG image
+     *
+     * @param filePath path to the image, relative to project root directory
+     * @return the width of the image in pixels, 0 if it cannot be read
+     */
+    public static double getWidth(String filePath) {return dimensionsOf(filePath)[0];}
+
+    /**
+     * returns the height of a PNG image
+     *
+     * @param filePath path to the image, relative to project root directory
+     * @return the height of the image in pixels, 0 if it cannot be read
+     */
+    public static double getHeight(String filePath) {return dimensionsOf(filePath)[1];}
+
+    private static double[] dimensionsOf(String filePath) {
+        return cache.computeIfAbsent(filePath, ImageHeader::readDimensions);
+    }
+
+    // the IHDR chunk always directly follows the signature, with width and height as its first fields
+    private static double[] readDimensions(String filePath) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(filePath))) {
+            if (in.readLong()!=PNG_SIGNATURE) throw new IOException(filePath+" is not a PNG image");
+            in.readInt(); // chunk length
+            in.readInt(); // chunk type
+            double width = Integer.toUnsignedLong(in.readInt());
+            double height = Integer.toUnsignedLong(in.readInt());
+            return new double[] {width, height};
+        } catch (IOException e) {e.printStackTrace();}
+        return new double[] {0.0, 0.0};
+    }
+}
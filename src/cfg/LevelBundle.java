@@ -0,0 +1,245 @@
+package cfg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import bagel.util.Point;
+
+/* a compiled level pack: the level list, every waves file and the polylines of every map, in one binary file
+   the file is memory-mapped, and each level's record is only decoded when that level is first used
+   the bundle records the size and modification time of each text source it was compiled from,
+   and is ignored as stale if any of them has changed
+
+   layout, big-endian; strings are a short byte count followed by UTF-8:
+   header:  magic, version, source count, (path, last modified, length) per source,
+            level count, (level number, map path, waves path, record offset) per level
+   records: map width, map height, polyline count, (point count, (x, y) per point) per polyline,
+            wave count, (wave number, event count, (type, amount, enemy, interval) per event) per wave */
+class LevelBundle {
+    private static final int MAGIC = 0x53444C42; // "SDLB"
+    private static final int VERSION = 2;
+    private static final String BUNDLE_EXTENSION = ".bundle";
+
+    /**
+     * returns the bundle path for a level data file, which replaces its extension
+     *
+     * @param levelsPath path to the level data file
+     * @return path to its bundle
+     */
+    static String bundlePathFor (String levelsPath) {
+        int dot = levelsPath.lastIndexOf('.');
+        return (dot<0 ? levelsPath : levelsPath.substring(0, dot)) + BUNDLE_EXTENSION;
+    }
+
+    /**
+     * compiles a level data file, its waves files and its maps into a bundle
+     *
+     * @param levelsPath path to the level data file
+     * @param bundlePath path to write the bundle to
+     * @throws IOException if any source cannot be read or the bundle cannot be written
+     */
+    static void compile (String levelsPath, String bundlePath) throws IOException {
+        // sources, in the order they are first referenced
+        Set<String> sources = new LinkedHashSet<String>();
+        sources.add(levelsPath);
+        List<String[]> rows = CSVReader.parse(levelsPath);
+
+        // level records, with offsets relative to the first record
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        DataOutputStream records = new DataOutputStream(recordBytes);
+        int[] offsets = new int[rows.size()];
+        int i = 0;
+        for (String[] ss : rows) {
+            offsets[i++] = records.size();
+            sources.add(ss[1]);
+            sources.add(ss[2]);
+            writeMap(records, MapData.loadFromFile(ss[1]));
+            writeWaves(records, EventData.loadFromFile(ss[2]));
+        }
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(sources.size());
+        for (String source : sources) {
+            File f = new File(source);
+            if (!f.isFile()) throw new IOException("missing level source "+source);
+            writeString(header, source);
+            header.writeLong(f.lastModified());
+            header.writeLong(f.length());
+        }
+        header.writeInt(rows.size());
+        // record offsets are made absolute, so the header size has to be known first
+        int headerSize = header.size();
+        for (String[] ss : rows) headerSize += Integer.BYTES + stringSize(ss[1]) + stringSize(ss[2]) + Integer.BYTES;
+        i = 0;
+        for (String[] ss : rows) {
+            header.writeInt(Integer.parseInt(ss[0]));
+            writeString(header, ss[1]);
+            writeString(header, ss[2]);
+            header.writeInt(headerSize + offsets[i++]);
+        }
+
+        try (FileOutputStream out = new FileOutputStream(bundlePath)) {
+            headerBytes.writeTo(out);
+            recordBytes.writeTo(out);
+        }
+    }
+
+    /**
+     * maps a bundle into memory and reads its level list, if it exists and is up to date with its sources
+     *
+     * @param bundlePath path to the bundle
+     * @return the levels, in level number order, decoding their records lazily; null if the bundle cannot be used
+     */
+    static NavigableMap<Integer,LevelData> open (String bundlePath) {
+        File file = new File(bundlePath);
+        if (!file.isFile()) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            // the mapping stays valid after the channel is closed
+            LevelBundle bundle = new LevelBundle(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+            return bundle.readLevels(bundlePath);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("level bundle "+bundlePath+" could not be read, using text sources: "+e);
+            return null;
+        }
+    }
+
+    private final MappedByteBuffer data;
+
+    // constructor
+    private LevelBundle (MappedByteBuffer ndata) {data = ndata;}
+
+    // reads and validates the header; null if the bundle is stale
+    private NavigableMap<Integer,LevelData> readLevels (String bundlePath) throws IOException {
+        ByteBuffer in = data.duplicate();
+        if (in.getInt()!=MAGIC) throw new IOException("not a level bundle");
+        if (in.getInt()!=VERSION) {
+            System.err.println("level bundle "+bundlePath+" is an old version, using text sources");
+            return null;
+        }
+        for (int n=in.getInt(); n>0; n--) {
+            String source = readString(in);
+            File f = new File(source);
+            if (f.lastModified()!=in.getLong() | f.length()!=in.getLong()) {
+                System.err.println("level bundle "+bundlePath+" is stale ("+source+" changed), using text sources");
+                return null;
+            }
+        }
+        NavigableMap<Integer,LevelData> result = new TreeMap<Integer,LevelData>();
+        for (int n=in.getInt(); n>0; n--) {
+            int levelNum = in.getInt();
+            String mapPath = readString(in);
+            String wavesPath = readString(in);
+            result.put(levelNum, new LevelData(mapPath, wavesPath, this, in.getInt()));
+        }
+        return result;
+    }
+
+    /**
+     * decodes the map stored in a level record
+     *
+     * @param offset the offset of the level record
+     * @return the map's bounds and polylines
+     */
+    MapData readMap (int offset) {
+        ByteBuffer in = data.duplicate();
+        in.position(offset);
+        double width = in.getDouble();
+        double height = in.getDouble();
+        List<List<Point>> polylines = new ArrayList<List<Point>>();
+        for (int n=in.getInt(); n>0; n--) {
+            List<Point> polyline = new ArrayList<Point>();
+            for (int m=in.getInt(); m>0; m--) polyline.add(new Point(in.getDouble(), in.getDouble()));
+            polylines.add(Collections.unmodifiableList(polyline));
+        }
+        return new MapData(width, height, Collections.unmodifiableList(polylines));
+    }
+
+    /**
+     * decodes the waves stored in a level record
+     *
+     * @param offset the offset of the level record
+     * @return a Map with waveNum as key and list of EventData as value
+     */
+    NavigableMap<Integer,List<EventData>> readWaves (int offset) {
+        ByteBuffer in = data.duplicate();
+        in.position(offset + Double.BYTES*2);
+        // skip the map
+        for (int n=in.getInt(); n>0; n--) {
+            int points = in.getInt();
+            in.position(in.position() + points*Double.BYTES*2);
+        }
+        NavigableMap<Integer,List<EventData>> result = new TreeMap<Integer,List<EventData>>();
+        for (int n=in.getInt(); n>0; n--) {
+            int waveNum = in.getInt();
+            List<EventData> events = new LinkedList<EventData>();
+            for (int m=in.getInt(); m>0; m--) {
+                int eventType = in.getInt();
+                int numToSpawn = in.getInt();
+                String enemyToSpawn = readString(in);
+                events.add(new EventData(eventType, numToSpawn, enemyToSpawn, in.getDouble()));
+            }
+            result.put(waveNum, events);
+        }
+        return result;
+    }
+
+    private static void writeMap (DataOutputStream out, MapData map) throws IOException {
+        out.writeDouble(map.width);
+        out.writeDouble(map.height);
+        out.writeInt(map.polylines.size());
+        for (List<Point> polyline : map.polylines) {
+            out.writeInt(polyline.size());
+            for (Point p : polyline) {
+                out.writeDouble(p.x);
+                out.writeDouble(p.y);
+            }
+        }
+    }
+
+    private static void writeWaves (DataOutputStream out, NavigableMap<Integer,List<EventData>> waves) throws IOException {
+        out.writeInt(waves.size());
+        for (Map.Entry<Integer,List<EventData>> wave : waves.entrySet()) {
+            out.writeInt(wave.getKey());
+            out.writeInt(wave.getValue().size());
+            for (EventData e : wave.getValue()) {
+                out.writeInt(e.eventType);
+                out.writeInt(e.numToSpawn);
+                writeString(out, e.enemyToSpawn);
+                out.writeDouble(e.interval);
+            }
+        }
+    }
+
+    private static void writeString (DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static int stringSize (String s) {return Short.BYTES + s.getBytes(StandardCharsets.UTF_8).length;}
+
+    private static String readString (ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,33 +1,147 @@
 package cfg;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.NavigableMap;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 
-/* represents the data regarding a single level, containing a map of waves */
+/* represents the data regarding a single level, containing a map of waves
+   levels are read from a compiled bundle next to the level data file when it is up to date,
+   otherwise from the text sources; either way, a level's waves and map are only read when first used,
+   or ahead of time in the background when preloaded */
 public class LevelData extends CSVReader {
     private static final String DATA_PATH = "res/levels.csv";
 
     /**
      * parses level data according to the preset level data filepath
-     * format: levelNumber;mapFilePath
+     * format: levelNumber;mapFilePath;wavesFilePath
      *
      * @return a Map with levelNumber as key and LevelData as value, in the same order as the CSV
      */
-    public static NavigableMap<Integer,LevelData> loadFromFile() {
+    public static NavigableMap<Integer,LevelData> loadFromFile() {return loadFromFile(DATA_PATH);}
+
+    /**
+     * parses level data from a given level data filepath, such as a custom level pack
+     * format: levelNumber;mapFilePath;wavesFilePath
+     *
+     * @param filePath the level data file to be parsed
+     * @return a Map with levelNumber as key and LevelData as value, in the same order as the CSV
+     */
+    public static NavigableMap<Integer,LevelData> loadFromFile(String filePath) {
+        NavigableMap<Integer,LevelData> bundled = LevelBundle.open(LevelBundle.bundlePathFor(filePath));
+        if (bundled!=null) return bundled;
         NavigableMap<Integer,LevelData> result = new TreeMap<Integer,LevelData>();
-        for (String[] ss : parse(DATA_PATH)) {
-            result.put(Integer.parseInt(ss[0]), new LevelData(ss[1], EventData.loadFromFile(ss[2])));
+        for (String[] ss : parse(filePath)) {
+            result.put(Integer.parseInt(ss[0]), new LevelData(ss[1], ss[2]));
         }
         return result;
     }
 
+    /**
+     * starts reading the waves and maps of several levels in the background, in parallel
+     *
+     * @param levels the levels to be preloaded
+     */
+    public static void preloadAll(Collection<LevelData> levels) {
+        for (LevelData l : levels) l.preload();
+    }
+
+    /**
+     * compiles a level data file, with its waves files and maps, into the bundle read by loadFromFile
+     *
+     * @param filePath the level data file to be compiled
+     * @return the path of the written bundle
+     * @throws IOException if a source cannot be read or the bundle cannot be written
+     */
+    public static String compileBundle(String filePath) throws IOException {
+        String bundlePath = LevelBundle.bundlePathFor(filePath);
+        LevelBundle.compile(filePath, bundlePath);
+        return bundlePath;
+    }
+
     public final String mapPath;
-    public final NavigableMap<Integer,List<EventData>> waves;
+    public final String wavesPath;
+    private final LevelBundle bundle; // bundle holding this level's record, if bundled
+    private final int bundleOffset;
+    // read without the lock, which is only held to publish them, so a read never blocks another thread
+    private volatile NavigableMap<Integer,List<EventData>> waves = null;
+    private volatile MapData map = null;
+    private volatile CompletableFuture<LevelData> preloading = null;
+
+    // constructors
+    private LevelData (String nmapPath, String nwavesPath) {
+        mapPath = nmapPath;
+        wavesPath = nwavesPath;
+        bundle = null;
+        bundleOffset = 0;
+    }
 
-    // constructor
-    private LevelData (String nmapPath, NavigableMap<Integer,List<EventData>> nwaves) {
+    LevelData (String nmapPath, String nwavesPath, LevelBundle nbundle, int nbundleOffset) {
         mapPath = nmapPath;
-        waves = nwaves;
+        wavesPath = nwavesPath;
+        bundle = nbundle;
+        bundleOffset = nbundleOffset;
+    }
+
+    /**
+     * starts reading the level's waves and map on a background thread, if not already started
+     * the getters then return the preloaded data, or read it themselves if it is still being read
+     *
+     * @return a future completing once the level is fully read
+     */
+    public synchronized CompletableFuture<LevelData> preload() {
+        if (preloading==null) {
+            preloading = CompletableFuture.supplyAsync(() -> {
+                getWaves();
+                getMap();
+                return this;
+            });
+        }
+        return preloading;
+    }
+
+    /**
+     * checks if the level has been fully read in the background, so its getters return without waiting
+     *
+     * @return whether a preload was started and has finished
+     */
+    public boolean isPreloaded() {return preloading!=null && preloading.isDone();}
+
+    /**
+     * returns the level's waves, reading them on first use
+     *
+     * @return a Map with waveNum as key and list of EventData as value; not to be modified
+     */
+    public NavigableMap<Integer,List<EventData>> getWaves() {
+        if (waves==null) {
+            NavigableMap<Integer,List<EventData>> read = Collections.unmodifiableNavigableMap(bundle!=null ? bundle.readWaves(bundleOffset) : EventData.loadFromFile(wavesPath));
+            synchronized (this) {if (waves==null) waves = read;} // a read finishing late cannot overwrite a replacement
+        }
+        return waves;
+    }
+
+    /**
+     * replaces the level's waves, such as after its waves file is hot reloaded
+     *
+     * @param setTo a Map with waveNum as key and list of EventData as value
+     */
+    public synchronized void replaceWaves(NavigableMap<Integer,List<EventData>> setTo) {
+        waves = Collections.unmodifiableNavigableMap(new TreeMap<Integer,List<EventData>>(setTo));
+    }
+
+    /**
+     * returns the bounds and polylines of the level's map, reading them on first use
+     *
+     * @return the level's MapData
+     */
+    public MapData getMap() {
+        if (map==null) {
+            MapData read = bundle!=null ? bundle.readMap(bundleOffset) : MapData.loadFromFile(mapPath);
+            synchronized (this) {if (map==null) map = read;}
+        }
+        return map;
     }
 }
\ No newline at end of file
@@ -0,0 +1,80 @@
+package cfg;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+import bagel.util.Point;
+
+/* represents the data regarding a single map, read directly from its .tmx file
+   only the map bounds and polylines are parsed, so no tile textures are loaded */
+public class MapData {
+    private static final String POINT_SEPARATOR = " ";
+    private static final String COORDINATE_SEPARATOR = ",";
+
+    // maps parsed so far, keyed by file path; MapData is immutable, so it is shared between simulations
+    private static final Map<String,MapData> cache = new ConcurrentHashMap<String,MapData>();
+
+    /**
+     * parses the bounds and all polylines of a Tiled map, or returns them if already parsed
+     *
+     * @param filePath path to the .tmx file, relative to project root directory
+     * @return a MapData holding the map's pixel dimensions and its polylines in file order
+     */
+    public static MapData loadFromFile(String filePath) {
+        return cache.computeIfAbsent(filePath, MapData::parse);
+    }
+
+    // parses a Tiled map without caching it
+    private static MapData parse(String filePath) {
+        double nwidth = 0.0;
+        double nheight = 0.0;
+        List<List<Point>> npolylines = new ArrayList<List<Point>>();
+        try {
+            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(filePath));
+            Element root = doc.getDocumentElement();
+            nwidth = Double.parseDouble(root.getAttribute("width"))*Double.parseDouble(root.getAttribute("tilewidth"));
+            nheight = Double.parseDouble(root.getAttribute("height"))*Double.parseDouble(root.getAttribute("tileheight"));
+            NodeList objects = doc.getElementsByTagName("object");
+            for (int i=0; i<objects.getLength(); i++) {
+                Element object = (Element)objects.item(i);
+                NodeList polylines = object.getElementsByTagName("polyline");
+                if (polylines.getLength()==0) continue;
+                // polyline points are relative to the position of their object
+                double originX = Double.parseDouble(object.getAttribute("x"));
+                double originY = Double.parseDouble(object.getAttribute("y"));
+                List<Point> polyline = new ArrayList<Point>();
+                for (String p : ((Element)polylines.item(0)).getAttribute("points").trim().split(POINT_SEPARATOR)) {
+                    String[] xy = p.split(COORDINATE_SEPARATOR);
+                    polyline.add(new Point(originX+Double.parseDouble(xy[0]), originY+Double.parseDouble(xy[1])));
+                }
+                npolylines.add(Collections.unmodifiableList(polyline));
+            }
+        } catch (ParserConfigurationException | SAXException | IOException e) {e.printStackTrace();}
+        return new MapData(nwidth, nheight, Collections.unmodifiableList(npolylines));
+    }
+
+    // immutable data fields
+    public final double width;
+    public final double height;
+    public final List<List<Point>> polylines;
+
+    // constructor
+    MapData (double nwidth, double nheight, List<List<Point>> npolylines) {
+        width = nwidth;
+        height = nheight;
+        polylines = npolylines;
+    }
+
+    // the lane is the first polyline in the map
+    public List<Point> getLane() {return polylines.get(0);}
+}
@@ -5,11 +5,30 @@ import java.util.TreeMap;
 
 /* represents the data regarding a single tower type */
 public class TowerData extends CSVReader {
-    private static final String DATA_PATH = "res/towers.csv";
+    public static final String DATA_PATH = "res/towers.csv";
+    public static final String FIRST = "first";         // furthest along the lane
+    public static final String LAST = "last";           // least far along the lane
+    public static final String STRONGEST = "strongest"; // most health left
+    public static final String CLOSEST = "closest";     // closest to the tower
+    // targeting strategy ordering
+    private static final String[] TARGETING_TYPES = {FIRST, LAST, STRONGEST, CLOSEST};
+
+    /**
+     * returns the number representing a targeting strategy, from its name
+     *
+     * @param targetingName the name of the strategy in text
+     * @return the number it is mapped to
+     * @throws IllegalArgumentException if there is no such strategy
+     */
+    public static int targetingFromName(String targetingName) {
+        for (int i=0; i<TARGETING_TYPES.length; i++) {if (TARGETING_TYPES[i].equals(targetingName)) return i;}
+        throw new IllegalArgumentException("unknown targeting strategy "+targetingName);
+    }
 
     /**
      * parses tower data according to the preset tower data filepath
-     * format: entityName;name;spritePath;attackSpritePath;cost;attackDamage;attackIntervalFloor;attackIntervalCeil;attackRadius;isAirSupport
+     * format: entityName;name;spritePath;attackSpritePath;cost;attackDamage;attackIntervalFloor;attackIntervalCeil;attackRadius;isAirSupport[;targeting]
+     * targeting defaults to first when omitted
      *
      * @return a Map with entityName as key and TowerData as value, in the same order as the CSV
      */
@@ -26,7 +45,8 @@ public class TowerData extends CSVReader {
             double nattackIntervalCeil = Double.parseDouble(ss[i++]);
             int nattackRadius = Integer.parseInt(ss[i++]);
             boolean nisAirSupport = Boolean.parseBoolean(ss[i++]);
-            result.put(ss[0], new TowerData(nname, nspritePath, nattackSpritePath, ncost, nattackDamage, nattackIntervalFloor, nattackIntervalCeil, nattackRadius, nisAirSupport));
+            int ntargeting = targetingFromName(i<ss.length ? ss[i++] : FIRST);
+            result.put(ss[0], new TowerData(nname, nspritePath, nattackSpritePath, ncost, nattackDamage, nattackIntervalFloor, nattackIntervalCeil, nattackRadius, nisAirSupport, ntargeting));
         }
         return result.descendingMap();
     }
@@ -41,6 +61,7 @@ public class TowerData extends CSVReader {
     public final double attackIntervalCeil;
     public final double attackRadius;
     public final boolean isAirSupport;
+    public final int targeting;
 
     // constructor
     private TowerData(String nname,
@@ -51,7 +72,8 @@ public class TowerData extends CSVReader {
         double nattackIntervalFloor,
         double nattackIntervalCeil,
         int nattackRadius,
-        boolean nisAirSupport) {
+        boolean nisAirSupport,
+        int ntargeting) {
         name = nname;
         spritePath = nspritePath;
         attackSpritePath = nattackSpritePath;
@@ -61,5 +83,6 @@ public class TowerData extends CSVReader {
         attackIntervalCeil = nattackIntervalCeil;
         attackRadius = nattackRadius;
         isAirSupport = nisAirSupport;
+        targeting = ntargeting;
     }
 }
\ No newline at end of file
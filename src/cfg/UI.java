@@ -8,6 +8,7 @@ import java.util.Map;
 import bagel.*;
 import bagel.util.Colour;
 import bagel.util.Point;
+import bagel.util.Rectangle;
 import game.*;
 
 /* singleton UI manager class */
@@ -25,8 +26,10 @@ public class UI {
     private final Font smallFont = new Font(FONT_PATH, SMALL_FONT_SIZE);
     private final Font bigFont = new Font(FONT_PATH, BIG_FONT_SIZE);
     private final Sprite buyPanel = new Sprite(BUY_PANEL_PATH, new Point(0,0),true);
-    private final Sprite statusPanel = new Sprite(STATUS_PANEL_PATH, new Point(0, Window.getHeight()-new Image(STATUS_PANEL_PATH).getHeight()), true);
+    private final Sprite statusPanel = new Sprite(STATUS_PANEL_PATH, new Point(0, Window.getHeight()-ImageHeader.getHeight(STATUS_PANEL_PATH)), true);
+    private final Sprite profilePanel = new Sprite(STATUS_PANEL_PATH, statusPanel.getPosition(), true); // the status panel, extended upward
     private final List<Sprite> panels = new ArrayList<Sprite>(List.of(buyPanel, statusPanel));
+    private final DrawOptions messageOptions = new DrawOptions();
 
     // buy panel layout configuration
     private Point towerIconsPosition = new Point(64, buyPanel.getHeight()/2-10);
@@ -35,8 +38,10 @@ public class UI {
     private Colour towerPriceUnaffordable = new Colour(1,0,0);
     private Colour towerActiveSelected = new Colour(0,1,0,0.5);
     private double towerIconPadding = 120;
-    private Point keybindsPosition = new Point(Window.getWidth()-400, 22);
+    private Point keybindsPosition = new Point(Window.getWidth()-660, 22);
     private String keybindsText = "Key binds:\n\nS - Start Wave\nL - Increase Timescale\nK - Decrease Timescale";
+    private Point moreKeybindsPosition = new Point(Window.getWidth()-450, 22); // a second column, beside the first
+    private String moreKeybindsText = "P - Toggle Profiler\nF - Toggle Instant Waves\nLEFT/RIGHT - Step a Frame\nDOWN/UP - Seek a Second\nR - Resume From Frame";
     private Point moneyPosition = new Point(Window.getWidth()-200, 65);
     private String dollar = "$";
     
@@ -48,6 +53,9 @@ public class UI {
     private Colour speedupColour = new Colour(0,1,0);
     private String statusTitle = "Status";
     private String livesTitle = "Lives";
+    private double profileLineHeight = KEYBIND_FONT_SIZE+3;
+    private Colour messageColour = new Colour(0,1,0);
+    private Colour errorColour = new Colour(1,0,0);
     
     // singleton initialisation
     private static UI instance = null; 
@@ -63,6 +71,7 @@ public class UI {
     private TowerIcon selectedTowerIcon = towerIcons.get(0);
     private boolean selectionActive = false;
     private boolean mousePressed = false;
+    private Sprite preview = null; // reused while the same tower is being placed
 
     // selection state getter
     public boolean getSelectionActive() {return selectionActive;}
@@ -71,43 +80,57 @@ public class UI {
      * manages mouse events and purchasing of towers
      *
      * @param input Bagel Input object.
-     * @param lane the lane on which towers cannot be built on.
+     * @param sim the simulation towers are bought and placed in.
+     * @param buffer the render buffer the placement preview is submitted to.
      */
-    public void updateMouse (Input input, List<Point> lane) {
-        if (Player.getInstance().isSuspended()) return;
+    public void updateMouse (Input input, SimulationEngine sim, RenderBuffer buffer) {
+        Player player = sim.getPlayer();
+        if (player.isSuspended()) return;
         // if selection is active, check for left click events and enable selection if valid
         if (!selectionActive) {
             for (TowerIcon t : towerIcons) {
                 if (input.isDown(MouseButtons.LEFT) & !mousePressed & t.isInClickArea(input.getMousePosition())) {
                     selectedTowerIcon = t;
-                    selectionActive = Player.getInstance().canAfford(t.getData().cost);
+                    selectionActive = player.canAfford(t.getData().cost);
                     break;
                 }
             }
         // if selection is inactive, check tower placement and place if requested and valid
         } else {
-            Sprite preview = new Sprite(selectedTowerIcon.getData().spritePath, input.getMousePosition());
-            if (Tower.getValidPlacement(preview, panels, lane, selectedTowerIcon.getData().isAirSupport)) {
+            if (preview == null || !preview.getFilename().equals(selectedTowerIcon.getData().spritePath)) {
+                if (preview != null) preview.release();
+                preview = new Sprite(selectedTowerIcon.getData().spritePath);
+            }
+            preview.setPosition(input.getMousePosition());
+            preview.setRotation(0.0);
+            if (Tower.getValidPlacement(sim, preview.getBoundingBoxAtPosition(), selectedTowerIcon.getData().isAirSupport)) {
                 if (input.isDown(MouseButtons.LEFT) & !mousePressed) {
-                    if (Player.getInstance().spendIfEnough(selectedTowerIcon.getData().cost)) {
-                        Tower.addTower(selectedTowerIcon.towerKey, input.getMousePosition());
+                    if (player.spendIfEnough(selectedTowerIcon.getData().cost)) {
+                        Tower.addTower(sim, selectedTowerIcon.towerKey, input.getMousePosition());
                         selectionActive = false;
                     }
                 } else {
                     if (selectedTowerIcon.getData().isAirSupport) {
-                        if (Tower.getPlaneWillBeHorizontal()) preview.setRotation(Math.PI/2);
+                        if (Tower.getPlaneWillBeHorizontal(sim)) preview.setRotation(Math.PI/2);
                         else preview.setRotation(Math.PI);
                     }
-                    preview.draw();
+                    buffer.submit(RenderBuffer.LAYER_UI, preview);
                 }
             }
             if (input.isDown(MouseButtons.RIGHT) & !mousePressed) selectionActive = false;
         }
-        selectionActive = selectionActive & Player.getInstance().canAfford(selectedTowerIcon.getData().cost);
+        selectionActive = selectionActive & player.canAfford(selectedTowerIcon.getData().cost);
         mousePressed = (input.isDown(MouseButtons.LEFT) | input.isDown(MouseButtons.RIGHT));
     }
     
     public double getBuyPanelHeight() {return buyPanel.getHeight();}
+
+    // bounding boxes of all panels, which towers cannot be placed on
+    public List<Rectangle> getPanelBounds() {
+        List<Rectangle> result = new ArrayList<Rectangle>();
+        for (Sprite s : panels) {result.add(s.getBoundingBoxAtPosition());}
+        return result;
+    }
     /**
      * draws the buy panel and all elements on it with provided info.
      *
@@ -117,6 +140,7 @@ public class UI {
         buyPanel.draw();
         // keybinds
         keybindFont.drawString(keybindsText, keybindsPosition.x, keybindsPosition.y);
+        keybindFont.drawString(moreKeybindsText, moreKeybindsPosition.x, moreKeybindsPosition.y);
         // money
         bigFont.drawString(dollar+Integer.toString(money), moneyPosition.x, moneyPosition.y);
         // tower icons
@@ -166,6 +190,35 @@ public class UI {
         statusDrawColumn(statusTitle, status);
         statusDrawColumn(livesTitle, Integer.toString(lives));
     }
+
+    /**
+     * draws a one-line notice just below the buy panel, such as the result of a data reload
+     *
+     * @param message the text to be drawn.
+     * @param isError whether to highlight the message as an error.
+     */
+    public void drawMessage (String message, boolean isError) {
+        messageOptions.setBlendColour(isError ? errorColour : messageColour);
+        smallFont.drawString(message, statusLeftPadding, buyPanel.getHeight()+SMALL_FONT_SIZE+statusLeftPadding, messageOptions);
+    }
+
+    /**
+     * draws profiler lines on the status panel, which is extended upward by copies of itself to fit them
+     *
+     * @param lines the lines to be drawn.
+     */
+    public void drawProfile (String[] lines) {
+        int copies = (int)Math.ceil((profileLineHeight*lines.length+statusLeftPadding)/statusPanel.getHeight());
+        for (int i=1; i<=copies; i++) {
+            profilePanel.setPosition(0, statusPanel.getY()-i*statusPanel.getHeight());
+            profilePanel.draw();
+        }
+        double y = statusPanel.getY() - copies*statusPanel.getHeight() + profileLineHeight;
+        for (String line : lines) {
+            keybindFont.drawString(line, statusLeftPadding, y);
+            y += profileLineHeight;
+        }
+    }
 }
 
 /* represents a singular tower icon drawn on the buy panel.
@@ -0,0 +1,40 @@
+package game;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import bagel.DrawOptions;
+import bagel.Image;
+import bagel.util.Colour;
+
+/* draws flushed commands to the Bagel window
+   holds one TextureCache reference per texture it has drawn, until releaseAll is called */
+public class BagelRenderBackend implements RenderBackend {
+    private final Map<String,Image> textures = new HashMap<String,Image>();
+    // reused every draw, so drawing does not allocate
+    private final DrawOptions plainOptions = new DrawOptions();
+    private final DrawOptions blendOptions = new DrawOptions();
+
+    @Override
+    public void drawTexture(String filename, double x, double y, double rotation, Colour blend, boolean topLeftPos) {
+        Image texture = textures.get(filename);
+        if (texture == null) {
+            texture = TextureCache.acquire(filename);
+            textures.put(filename, texture);
+        }
+        DrawOptions d = blend==null ? plainOptions : blendOptions;
+        d.setRotation(rotation);
+        if (blend != null) d.setBlendColour(blend);
+        if (topLeftPos) texture.drawFromTopLeft(x, y, d);
+        else texture.draw(x, y, d);
+    }
+
+    @Override
+    public void drawCustom(String label, Runnable draw) {draw.run();}
+
+    // gives up all texture references, so textures no longer drawn can be evicted
+    public void releaseAll() {
+        for (String filename : textures.keySet()) TextureCache.release(filename);
+        textures.clear();
+    }
+}
@@ -0,0 +1,72 @@
+package game;
+
+import bagel.util.Point;
+import bagel.util.Rectangle;
+import cfg.ImageHeader;
+
+/* simulation state of an entity: position, rotation and collision bounds
+   holds no rendering resources, so it can be updated without a window;
+   position is stored as primitives and updated in place, so movement does not allocate */
+public class Body {
+    private double x = 0.0;
+    private double y = 0.0;
+    private double rotation = 0.0;
+    private final double width;
+    private final double height;
+
+    // constructors
+    public Body (String spritePath) {
+        width = ImageHeader.getWidth(spritePath);
+        height = ImageHeader.getHeight(spritePath);
+    }
+
+    public Body (double nwidth, double nheight) {
+        width = nwidth;
+        height = nheight;
+    }
+
+    public Body (String spritePath, Point nposition) {
+        this(spritePath);
+        setPosition(nposition);
+    }
+
+    // getters
+    public double getX() {return x;}
+    public double getY() {return y;}
+    public Point getPosition() {return new Point(x,y);}
+    public double getRotation() {return rotation;}
+    public double getWidth() {return width;}
+    public double getHeight() {return height;}
+
+    // setters
+    public void setPosition (Point setTo) {x = setTo.x; y = setTo.y;}
+    public void setPosition (double setToX, double setToY) {x = setToX; y = setToY;}
+    public void setRotation (double setTo) {rotation = setTo % (2*Math.PI);}
+
+    /**
+     * returns the distance from the centre of the Body to a set Point
+     *
+     * @param point the Point which the Body is away from
+     * @return the Euclidean distance from the Point
+     */
+    public double getDistanceFrom(Point point) {return Math.sqrt(getDistanceSquaredFrom(point.x, point.y));}
+
+    /**
+     * returns the squared distance from the centre of the Body to a set position
+     * compare against a squared range to avoid the square root
+     *
+     * @param px the x coordinate of the position
+     * @param py the y coordinate of the position
+     * @return the squared Euclidean distance from the position
+     */
+    public double getDistanceSquaredFrom(double px, double py) {
+        double dx = px-x;
+        double dy = py-y;
+        return dx*dx+dy*dy;
+    }
+
+    // creates a bounding box centred at the body's position
+    public Rectangle getBoundingBoxAtPosition() {
+        return new Rectangle(new Point(x-width/2, y-height/2), width, height);
+    }
+}
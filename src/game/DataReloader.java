@@ -0,0 +1,221 @@
+package game;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import cfg.EnemyData;
+import cfg.EventData;
+import cfg.LevelData;
+import cfg.TowerData;
+
+/* hot reloading of enemies.csv, towers.csv and the waves files while the game runs
+   a watcher thread re-parses only the file that changed, and queues the result;
+   queued results are validated and swapped in on the game thread between frames,
+   and live entities pick up new stats since they look their data up by name.
+   invalid files are rejected, keeping the old data, with the error kept for the UI to show */
+public class DataReloader {
+    private static final long SETTLE_MILLIS = 100; // editors may write a file in several steps
+    private static final long MESSAGE_NANOS = 5_000_000_000L;
+
+    private final Collection<LevelData> levels;
+    private final Set<Path> wavesPaths = new HashSet<Path>();
+    private final Path enemiesPath = normalise(EnemyData.DATA_PATH);
+    private final Path towersPath = normalise(TowerData.DATA_PATH);
+    private final ConcurrentLinkedQueue<Parsed> parsed = new ConcurrentLinkedQueue<Parsed>();
+    private final WatchService watcher;
+
+    // last reload result, for the UI
+    private String message = null;
+    private boolean messageIsError = false;
+    private long messageTime = 0;
+
+    /**
+     * starts watching the enemy and tower data files, and the waves files of the given levels
+     *
+     * @param nlevels the levels whose waves files are watched, and updated on reload
+     * @throws IOException if the files cannot be watched
+     */
+    public DataReloader (Collection<LevelData> nlevels) throws IOException {
+        levels = nlevels;
+        for (LevelData l : levels) wavesPaths.add(normalise(l.wavesPath));
+        watcher = FileSystems.getDefault().newWatchService();
+        Set<Path> dirs = new HashSet<Path>();
+        dirs.add(enemiesPath.getParent());
+        dirs.add(towersPath.getParent());
+        for (Path p : wavesPaths) dirs.add(p.getParent());
+        for (Path dir : dirs) dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new Thread(this::watch, "data-reloader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // getters
+    public String getMessage() {return message!=null && System.nanoTime()-messageTime<MESSAGE_NANOS ? message : null;}
+    public boolean isMessageError() {return messageIsError;}
+
+    /**
+     * validates and applies the files parsed since the last call; to be called between frames
+     *
+     * @param sim the simulation whose remaining waves are updated
+     */
+    public void applyPending (SimulationEngine sim) {
+        Parsed p;
+        while ((p = parsed.poll())!=null) {
+            try {
+                if (p.error!=null) throw new IllegalArgumentException(p.error);
+                p.apply(sim);
+                setMessage("reloaded "+p.path.getFileName(), false);
+            } catch (IllegalArgumentException e) {
+                setMessage("rejected "+p.path.getFileName()+": "+e.getMessage(), true);
+            }
+        }
+    }
+
+    /* stops watching for changes */
+    public void close() {
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void setMessage (String setTo, boolean isError) {
+        message = setTo;
+        messageIsError = isError;
+        messageTime = System.nanoTime();
+    }
+
+    // watcher thread: waits for changes to settle, then parses each changed file once
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Set<Path> changed = new HashSet<Path>();
+                while (key!=null) {
+                    Path dir = (Path)key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() instanceof Path) changed.add(dir.resolve((Path)event.context()).normalize());
+                    }
+                    key.reset();
+                    key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                for (Path p : changed) {
+                    if (p.equals(enemiesPath)) parsed.add(parse(p, EnemyData.DATA_PATH));
+                    else if (p.equals(towersPath)) parsed.add(parse(p, TowerData.DATA_PATH));
+                    else if (wavesPaths.contains(p)) parsed.add(parse(p, null));
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    // parses a changed file; any exception while parsing is kept as the reason to reject it
+    private Parsed parse (Path path, String dataPath) {
+        Parsed result = new Parsed(path);
+        try {
+            if (EnemyData.DATA_PATH.equals(dataPath)) result.enemies = EnemyData.loadFromFile();
+            else if (TowerData.DATA_PATH.equals(dataPath)) result.towers = TowerData.loadFromFile();
+            else result.waves = EventData.loadFromFile(path.toString());
+        } catch (RuntimeException e) {
+            result.error = e.toString();
+        }
+        return result;
+    }
+
+    private static Path normalise (String path) {return Paths.get(path).toAbsolutePath().normalize();}
+
+    /* the contents of one changed file, parsed on the watcher thread */
+    private class Parsed {
+        private final Path path;
+        private Map<String,EnemyData> enemies = null;
+        private Map<String,TowerData> towers = null;
+        private NavigableMap<Integer,List<EventData>> waves = null;
+        private String error = null;
+
+        private Parsed (Path npath) {path = npath;}
+
+        // validates the parsed data, then swaps it in; throws IllegalArgumentException if it is invalid
+        private void apply (SimulationEngine sim) {
+            if (enemies!=null) {
+                validateEnemies(enemies);
+                for (LevelData l : levels) validateWaves(l.getWaves(), enemies);
+                Enemy.DATA = enemies;
+            } else if (towers!=null) {
+                validateTowers(towers);
+                Tower.DATA = towers;
+            } else {
+                validateWaves(waves, Enemy.DATA);
+                for (LevelData l : levels) {
+                    if (!normalise(l.wavesPath).equals(path)) continue;
+                    l.replaceWaves(waves);
+                    sim.reloadWaves(l.wavesPath);
+                }
+            }
+        }
+    }
+
+    // enemy types may be added, but not removed, since live enemies and waves refer to them by name
+    private static void validateEnemies (Map<String,EnemyData> data) {
+        require(!data.isEmpty(), "no enemy types");
+        for (String name : Enemy.DATA.keySet()) require(data.containsKey(name), "enemy type "+name+" was removed");
+        for (Map.Entry<String,EnemyData> e : data.entrySet()) {
+            EnemyData d = e.getValue();
+            String name = e.getKey();
+            require(new File(d.spritePath).isFile(), name+" sprite "+d.spritePath+" not found");
+            require(d.maxHealth>0, name+" needs positive health");
+            require(d.speed>0, name+" needs positive speed");
+            require(d.reward>=0 & d.penalty>=0 & d.childNum>=0, name+" has a negative reward, penalty or child count");
+            require(d.childType.equals("") || data.containsKey(d.childType), name+" spawns unknown type "+d.childType);
+        }
+    }
+
+    // the tower types must stay the same, since the buy panel is built from them
+    private static void validateTowers (Map<String,TowerData> data) {
+        require(data.keySet().equals(Tower.DATA.keySet()), "tower types cannot be added or removed while running");
+        for (Map.Entry<String,TowerData> e : data.entrySet()) {
+            TowerData d = e.getValue();
+            String name = e.getKey();
+            require(new File(d.spritePath).isFile() & new File(d.attackSpritePath).isFile(), name+" sprites not found");
+            require(d.cost>=0 & d.attackDamage>=0, name+" has a negative cost or damage");
+            require(d.attackIntervalFloor>=0 & d.attackIntervalFloor<=d.attackIntervalCeil, name+" needs 0 <= interval floor <= ceiling");
+            require(d.attackRadius>0, name+" needs a positive radius");
+        }
+    }
+
+    private static void validateWaves (NavigableMap<Integer,List<EventData>> waves, Map<String,EnemyData> enemies) {
+        require(!waves.isEmpty(), "no waves");
+        for (Map.Entry<Integer,List<EventData>> w : waves.entrySet()) {
+            for (EventData e : w.getValue()) {
+                String where = "wave "+w.getKey()+": ";
+                require(e.eventType>=0, where+"unknown event type");
+                require(e.interval>0, where+"needs a positive interval");
+                require(e.numToSpawn>0, where+"needs a positive amount");
+                if (EventData.isSpawning(e.eventType)) {
+                    require(enemies.containsKey(e.enemyToSpawn), where+"unknown enemy type "+e.enemyToSpawn);
+                }
+            }
+        }
+    }
+
+    private static void require (boolean condition, String error) {
+        if (!condition) throw new IllegalArgumentException(error);
+    }
+}
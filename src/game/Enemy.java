@@ -1,101 +1,207 @@
 package game;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.LinkedList;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import bagel.util.Point;
 import cfg.EnemyData;
 
 /* a singular enemy that gets damaged and moves to its target
    static methods manage enemy tracking, movement, death and penalty logic */
 public class Enemy extends GameEntity {
-    // all enemy data as a Map
-    public static final Map<String,EnemyData> DATA = EnemyData.loadFromFile();
+    // below this many enemies, movement stays on the calling thread unless the simulation is set otherwise
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 16384;
+    static final int CHUNK_SIZE = 4096;
+    // outcomes of the movement phase
+    private static final byte MOVED = 0;
+    private static final byte DIED = 1;
+    private static final byte ARRIVED = 2;
 
-    // tracks all created Enemy instances
-    private static Map<Integer,Enemy> allInstances = new HashMap<Integer,Enemy>();
-    public static int countAllInstances() {return allInstances.size();}
+    // all enemy data as a Map, replaced as a whole between frames when enemies.csv is hot reloaded
+    public static volatile Map<String,EnemyData> DATA = EnemyData.loadFromFile();
 
     /**
-     * adds a new Enemy entity to the registry
+     * adds a new Enemy entity to a simulation's registry, at the start of its lane
      *
+     * @param sim the simulation the Enemy is spawned in
      * @param entityName the identifying name of the Enemy to be spawned
-     * @param nmovementPath a List of Points which the Enemy will travel on
      */
-    public static void addEnemy(String entityName, List<Point> nmovementPath) {
-        Enemy spawn = new Enemy(entityName, nmovementPath);
-        allInstances.put(spawn.id, spawn);
+    public static void addEnemy(SimulationEngine sim, String entityName) {addEnemy(sim, entityName, 0.0);}
+
+    /**
+     * adds a new Enemy entity to a simulation's registry, partway along its lane
+     *
+     * @param sim the simulation the Enemy is spawned in
+     * @param entityName the identifying name of the Enemy to be spawned
+     * @param distance the distance along the lane to spawn at; negative if it has yet to enter, placing it at the start
+     * @return the spawned Enemy
+     */
+    static Enemy addEnemy(SimulationEngine sim, String entityName, double distance) {
+        Enemy spawn = new Enemy(entityName, sim.getLane(), distance);
+        spawn.handle = sim.enemies.add(spawn);
+        spawn.index = sim.progressIndex;
+        sim.progressIndex.add(spawn);
+        sim.enemyGrid.invalidate();
+        return spawn;
     }
 
     /**
      * updates all Enemy positions and rotations towards their targets
-     * redraws all Enemy entities
      * rewards player and spawns children for dead Enemy entities
      * removes dead Enemy entities
+     * movement is independent per Enemy, so it runs first, over contiguous chunks of the registry that run in parallel
+     * once there are at least the simulation's parallel threshold of enemies; the outcome for each Enemy is recorded,
+     * then rewards, penalties, children and removals are applied on the calling thread in the same order as a single pass,
+     * so the result does not depend on the threshold
      *
+     * @param sim the simulation whose Enemy entities are updated
      * @param frameTime amount of real time that one frame is shown for
      */
-    public static void updateAll (double frameTime) {
-        // mark children to be added and entries to be removed
-        List<Enemy> toAdd = new LinkedList<Enemy>();
-        List<Integer> toRemove = new LinkedList<Integer>();
-        for (Map.Entry<Integer,Enemy> ee : allInstances.entrySet()) {
-            Enemy e = ee.getValue();
-            Sprite s = e.sprite;
+    public static void updateAll (SimulationEngine sim, double frameTime) {
+        int n = sim.enemies.size();
+        byte[] outcomes = sim.enemyOutcomes(n);
+        MovementTask all = new MovementTask(sim, frameTime, outcomes, 0, (n+CHUNK_SIZE-1)/CHUNK_SIZE);
+        if (n>=sim.getEnemyParallelThreshold()) ForkJoinPool.commonPool().invoke(all);
+        else all.compute();
+
+        // children are appended to the registry, so they are not visited until the next update
+        for (int i=n-1; i>=0; i--) {
+            if (outcomes[i]==MOVED) continue;
+            Enemy e = sim.enemies.at(i);
             // if dead, spawn children and remove from instance registry
-            if (!e.isAlive()) {
-                Player.getInstance().reward(e.getData().reward);
+            if (outcomes[i]==DIED) {
+                sim.getPlayer().reward(e.getData().reward);
                 if (!e.getData().childType.equals("")) {
-                    for (int i=0; i<e.getData().childNum; i++) {toAdd.add(new Enemy(e.getData().childType, e.movementPath, s.getPosition()));}
+                    for (int j=0; j<e.getData().childNum; j++) {
+                        Enemy child = new Enemy(e.getData().childType, sim.getLane(), e.distance);
+                        child.handle = sim.enemies.add(child);
+                        child.index = sim.progressIndex;
+                        sim.progressIndex.add(child);
+                    }
                 }
-                toRemove.add(ee.getKey());
-            // if alive, move to end and penalise player if end is reached
+            // if it reached the end, penalise player
             } else {
-                if (e.reachedDestination()) {
-                    Player.getInstance().penalise(e.getData().penalty);
-                    toRemove.add(ee.getKey());
-                } else {
-                    e.moveToTarget(frameTime);
-                    s.draw();
+                sim.getPlayer().penalise(e.getData().penalty);
+            }
+            sim.enemies.removeAt(i);
+        }
+        sim.enemyGrid.invalidate();
+        sim.progressIndex.invalidate();
+    }
+
+    /* the movement phase over a range of chunks, split in half until a single chunk is left */
+    private static class MovementTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SimulationEngine sim;
+        private final double frameTime;
+        private final byte[] outcomes;
+        private final int from;
+        private final int to;
+
+        private MovementTask (SimulationEngine nsim, double nframeTime, byte[] noutcomes, int nfrom, int nto) {
+            sim = nsim;
+            frameTime = nframeTime;
+            outcomes = noutcomes;
+            from = nfrom;
+            to = nto;
+        }
+
+        // each Enemy is either dead, at the end of the lane, or moved along it; only the Enemy itself is written
+        @Override
+        protected void compute() {
+            if (to-from>1) {
+                int mid = (from+to)>>>1;
+                invokeAll(new MovementTask(sim, frameTime, outcomes, from, mid), new MovementTask(sim, frameTime, outcomes, mid, to));
+                return;
+            }
+            Lane lane = sim.getLane();
+            for (int c=from; c<to; c++) {
+                int end = Math.min(sim.enemies.size(), (c+1)*CHUNK_SIZE);
+                for (int i=c*CHUNK_SIZE; i<end; i++) {
+                    Enemy e = sim.enemies.at(i);
+                    if (!e.isAlive()) outcomes[i] = DIED;
+                    else if (e.reachedDestination(lane)) outcomes[i] = ARRIVED;
+                    else {
+                        e.moveAlong(lane, frameTime);
+                        outcomes[i] = MOVED;
+                    }
                 }
             }
         }
-        // add children and remove all marked entries
-        for (Enemy e : toAdd) allInstances.put(e.id, e);
-        for (int i : toRemove) allInstances.remove(i);
+    }
+
+    /**
+     * submits draws of all Enemy entities of a simulation
+     *
+     * @param sim the simulation whose Enemy entities are drawn
+     * @param buffer the buffer to submit to
+     */
+    public static void renderAll (SimulationEngine sim, RenderBuffer buffer) {
+        for (int i=0; i<sim.enemies.size(); i++) sim.enemies.at(i).submit(buffer, RenderBuffer.LAYER_ENEMIES);
     }
 
     /**
      * returns a list of Enemies that are within range of a set Point
+     * only the spatial grid cells overlapping the range are searched
      *
+     * @param sim the simulation whose Enemy entities are searched
      * @param point the Point in question
      * @param range the range in question
-     * @return the first enemy that is within range of the
+     * @return all Enemy entities that are within range of the Point
      */
-    public static List<Enemy> withinRangeOf (Point point, double range) {
-        List<Enemy> result = new LinkedList<Enemy>();
-        for (Enemy e : allInstances.values()) {
-            if (e.sprite.getDistanceFrom(point)<range) {result.add(e);}
-        }
+    public static List<Enemy> withinRangeOf (SimulationEngine sim, Point point, double range) {
+        List<Enemy> result = new ArrayList<Enemy>();
+        withinRangeOf(sim, point.x, point.y, range, result);
         return result;
     }
 
-    private int currentHealth;
-    private List<Point> movementPath;
+    /**
+     * finds the Enemies that are within range of a set position, reusing a result list
+     * only the spatial grid cells overlapping the range are searched
+     *
+     * @param sim the simulation whose Enemy entities are searched
+     * @param x the x coordinate of the position in question
+     * @param y the y coordinate of the position in question
+     * @param range the range in question
+     * @param result the list to be cleared and filled with all Enemy entities within range
+     */
+    public static void withinRangeOf (SimulationEngine sim, double x, double y, double range, List<Enemy> result) {
+        sim.enemyGrid.withinRangeOf(sim.enemies, x, y, range, result);
+    }
 
-    // constructors
-    private Enemy (String entityName, List<Point> nmovementPath) {
-        super(entityName, DATA.get(entityName).spritePath);
-        currentHealth = getData().maxHealth;
-        movementPath = new LinkedList<Point>(nmovementPath);
-        super.sprite.setPosition(getTarget());
+    /**
+     * restores an Enemy saved by write, appending it to the registry; it is added to the progress index
+     * when the index is restored
+     *
+     * @param sim the simulation the Enemy is restored to
+     * @param in the buffer to read from
+     * @param types the type names of the save
+     */
+    static void read (SimulationEngine sim, ByteBuffer in, Snapshot.Types types) {
+        String entityName = types.enemyName(in.getShort());
+        int health = in.getInt();
+        Enemy e = new Enemy(entityName, sim.getLane(), in.getDouble());
+        e.currentHealth = health;
+        e.handle = sim.enemies.add(e);
+        e.index = sim.progressIndex;
+        sim.enemyGrid.invalidate();
     }
-    private Enemy (String entityName, List<Point> nmovementPath, Point customPostion) {
+
+    private int currentHealth;
+    private double distance; // distance travelled along the lane
+    private ProgressIndex index = null; // the index ordering this Enemy, told of health changes
+    int progressSlot = -1;              // position in the index's order, maintained by the index
+
+    // constructor
+    private Enemy (String entityName, Lane lane, double ndistance) {
         super(entityName, DATA.get(entityName).spritePath);
         currentHealth = getData().maxHealth;
-        movementPath = new LinkedList<Point>(nmovementPath);
-        super.sprite.setPosition(customPostion);    
+        distance = ndistance;
+        lane.place(super.body, distance);
     }
     
     /**
@@ -103,26 +209,36 @@ public class Enemy extends GameEntity {
      *
      * @param amount the amount of damage taken
      */
-    public void damage (int amount) {currentHealth-=amount;}
+    public void damage (int amount) {
+        currentHealth-=amount;
+        if (index!=null) index.healthChanged(this);
+    }
+
+    // getters
+    public int getHealth() {return currentHealth;}
+    public double getDistance() {return distance;}
+
+    // writes an Enemy's state for a save
+    void write (ByteBuffer out, Snapshot.Types types) {
+        out.putShort((short)types.enemyId(entityName));
+        out.putInt(currentHealth);
+        out.putDouble(distance);
+    }
 
     // derived attributes
     private EnemyData getData() {return DATA.get(entityName);}
     private boolean isAlive() {return currentHealth>0;}
-    private boolean reachedDestination() {return movementPath.isEmpty();}
-    private Point getTarget() {return reachedDestination() ? sprite.getPosition() : movementPath.get(0);}
+    private boolean reachedDestination(Lane lane) {return distance>=lane.getLength();}
 
     /**
-     * updates an Enemy's position and rotation
-     * use getSprite().draw() to show updated sprite
+     * moves an Enemy along the lane, updating its position and rotation
+     * use submit() to show updated sprite
      *
+     * @param lane the lane the Enemy travels on
      * @param frameTime amount of real time that one frame is shown for
      */
-    private void moveToTarget (double frameTime) {
-        if (reachedDestination()) return;
-        Point current = sprite.getPosition();
-        if (getTarget().equals(current)) movementPath.remove(0);
-        double distMoved = frameTime * DATA.get(entityName).speed;
-        sprite.setPosition(PathingManager.newPosition(current, getTarget(), distMoved));
-        sprite.setRotation(PathingManager.newRotation(current, getTarget()));
+    private void moveAlong (Lane lane, double frameTime) {
+        distance = Math.min(lane.getLength(), distance + frameTime * getData().speed);
+        lane.place(body, distance);
     }
-}
\ No newline at end of file
+}
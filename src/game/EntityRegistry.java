@@ -0,0 +1,149 @@
+package game;
+
+import java.util.Arrays;
+
+/* generational slot map holding all entities of one type
+   entities are packed densely for iteration and referred to elsewhere by stable handles;
+   a handle packs a slot index with that slot's generation, so handles to removed entities go stale
+   instead of aliasing whichever entity reuses the slot
+
+   to update entities in place, iterate dense indices from size()-1 down to 0:
+   the entity being visited may be removed with removeAt, and entities added during the pass
+   are appended beyond the starting index, so they are only visited on the next pass */
+public class EntityRegistry<T> {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NO_SLOT = -1;
+
+    private T[] dense;
+    private int[] denseSlots = new int[INITIAL_CAPACITY];   // slot of each dense entry
+    private int[] slotIndices = new int[INITIAL_CAPACITY];  // dense index of a live slot, or the next free slot
+    private int[] generations = new int[INITIAL_CAPACITY];
+    private int size = 0;
+    private int slotCount = 0;
+    private int freeSlot = NO_SLOT;
+
+    // constructor
+    @SuppressWarnings("unchecked")
+    public EntityRegistry() {dense = (T[])new Object[INITIAL_CAPACITY];}
+
+    // getters
+    public int size() {return size;}
+    public boolean isEmpty() {return size==0;}
+
+    /**
+     * adds an entity, reusing a free slot if there is one
+     *
+     * @param entity the entity to be added
+     * @return a handle that refers to the entity until it is removed
+     */
+    public long add (T entity) {
+        int slot;
+        if (freeSlot!=NO_SLOT) {
+            slot = freeSlot;
+            freeSlot = slotIndices[slot];
+        } else {
+            if (slotCount==slotIndices.length) {
+                slotIndices = Arrays.copyOf(slotIndices, slotCount*2);
+                generations = Arrays.copyOf(generations, slotCount*2);
+            }
+            slot = slotCount++;
+        }
+        if (size==dense.length) {
+            dense = Arrays.copyOf(dense, size*2);
+            denseSlots = Arrays.copyOf(denseSlots, size*2);
+        }
+        dense[size] = entity;
+        denseSlots[size] = slot;
+        slotIndices[slot] = size;
+        size++;
+        return toHandle(slot, generations[slot]);
+    }
+
+    /**
+     * returns the entity at a dense index, for iteration
+     *
+     * @param index the dense index, from 0 to size()-1
+     * @return the entity stored at that index
+     */
+    public T at (int index) {return dense[index];}
+
+    /**
+     * returns the handle of the entity at a dense index
+     *
+     * @param index the dense index, from 0 to size()-1
+     * @return the handle of the entity stored at that index
+     */
+    public long handleAt (int index) {
+        int slot = denseSlots[index];
+        return toHandle(slot, generations[slot]);
+    }
+
+    /**
+     * checks if a handle still refers to a live entity
+     *
+     * @param handle the handle in question
+     * @return whether the entity it refers to has not been removed
+     */
+    public boolean contains (long handle) {
+        int slot = (int)handle;
+        // a slot's generation is bumped on removal, and a free slot's generation is never handed out
+        return slot>=0 & slot<slotCount && generations[slot]==(int)(handle>>>32);
+    }
+
+    /**
+     * returns the entity a handle refers to
+     *
+     * @param handle the handle in question
+     * @return the entity, or null if it has been removed
+     */
+    public T get (long handle) {return contains(handle) ? dense[slotIndices[(int)handle]] : null;}
+
+    /**
+     * returns the dense index of the entity a handle refers to
+     * dense order survives a save, unlike handles, so references are saved as indices
+     *
+     * @param handle the handle in question
+     * @return the dense index, or -1 if the entity has been removed
+     */
+    public int indexOf (long handle) {return contains(handle) ? slotIndices[(int)handle] : -1;}
+
+    /**
+     * removes the entity a handle refers to
+     *
+     * @param handle the handle in question
+     * @return whether an entity was removed
+     */
+    public boolean remove (long handle) {
+        if (!contains(handle)) return false;
+        removeAt(slotIndices[(int)handle]);
+        return true;
+    }
+
+    /**
+     * removes the entity at a dense index, moving the last entity into its place
+     *
+     * @param index the dense index, from 0 to size()-1
+     * @return the removed entity
+     */
+    public T removeAt (int index) {
+        T removed = dense[index];
+        int slot = denseSlots[index];
+        int last = --size;
+        dense[index] = dense[last];
+        denseSlots[index] = denseSlots[last];
+        slotIndices[denseSlots[index]] = index;
+        dense[last] = null;
+        // retire the slot's generation and push it onto the free list
+        generations[slot]++;
+        slotIndices[slot] = freeSlot;
+        freeSlot = slot;
+        return removed;
+    }
+
+    // removes all entities, invalidating all of their handles
+    public void clear() {
+        while (size>0) removeAt(size-1);
+    }
+
+    private static long toHandle (int slot, int generation) {return ((long)generation<<32) | (slot & 0xFFFFFFFFL);}
+}
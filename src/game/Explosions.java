@@ -0,0 +1,60 @@
+package game;
+
+import java.util.Arrays;
+
+/* the bomb explosions due in one tick, collected and then resolved together
+   explosions are bucketed by the spatial grid cells they overlap, and each Enemy in a touched cell
+   is visited once, taking the summed damage of every explosion that reaches it.
+   damage is applied in grid order, and explosions are kept in the order they were added, so results are deterministic */
+class Explosions {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int count = 0;
+    private double[] xs = new double[INITIAL_CAPACITY];
+    private double[] ys = new double[INITIAL_CAPACITY];
+    private double[] ranges = new double[INITIAL_CAPACITY];
+    private int[] damages = new int[INITIAL_CAPACITY];
+
+    // getters
+    int size() {return count;}
+    double x (int i) {return xs[i];}
+    double y (int i) {return ys[i];}
+    double range (int i) {return ranges[i];}
+    int damage (int i) {return damages[i];}
+
+    /**
+     * queues an explosion to be resolved with the others due this tick
+     *
+     * @param x the x coordinate of the explosion
+     * @param y the y coordinate of the explosion
+     * @param range the radius within which Enemy entities are damaged
+     * @param damage the damage dealt to each of them
+     */
+    void add (double x, double y, double range, int damage) {
+        if (count==xs.length) {
+            int n = count*2;
+            xs = Arrays.copyOf(xs, n);
+            ys = Arrays.copyOf(ys, n);
+            ranges = Arrays.copyOf(ranges, n);
+            damages = Arrays.copyOf(damages, n);
+        }
+        xs[count] = x;
+        ys[count] = y;
+        ranges[count] = range;
+        damages[count] = damage;
+        count++;
+    }
+
+    /**
+     * damages every Enemy and swarm member strictly within range of each queued explosion, then clears the queue
+     *
+     * @param sim the simulation whose enemies are damaged
+     */
+    void resolve (SimulationEngine sim) {
+        if (count==0) return;
+        sim.enemyGrid.damageWithin(sim.enemies, this);
+        // swarm members are found by binary search along the lane, so no member is scanned more than its overlaps need
+        for (int i=0; i<count; i++) Swarm.damageWithinRangeOf(sim, xs[i], ys[i], ranges[i], damages[i]);
+        count = 0;
+    }
+}
@@ -0,0 +1,169 @@
+package game;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/* per-phase frame timing, kept in fixed-size histograms so that recording a frame does not allocate
+   percentiles are summarised once per window of frames for the overlay,
+   and each frame can optionally be streamed as a row to a CSV file */
+public class FrameProfiler {
+    // phases, in the order they are reported
+    public static final int PHASE_WAVES = 0;
+    public static final int PHASE_TOWERS = 1;
+    public static final int PHASE_ENEMIES = 2;
+    public static final int PHASE_SUBMIT = 3; // queueing draws for the map, entities and panels
+    public static final int PHASE_MOUSE = 4;
+    public static final int PHASE_FLUSH = 5; // all drawing, including the map and panels below
+    public static final int PHASE_MAP = 6;
+    public static final int PHASE_PANELS = 7;
+    public static final int PHASE_FRAME = 8;
+    public static final int PHASES = 9;
+    private static final String[] PHASE_NAMES = {"waves", "towers", "enemies", "submit", "mouse", "flush", "map", "panels", "frame"};
+
+    // histogram configuration: linear buckets, the last of which holds anything slower
+    private static final long BUCKET_NANOS = 10_000;
+    private static final int BUCKETS = 5000; // 50ms
+    private static final int WINDOW_FRAMES = 75;
+    private static final double NANOS_PER_MS = 1e6;
+    private static final double NANOS_PER_US = 1e3;
+
+    private final int[][] histograms = new int[PHASES][BUCKETS];
+    private final long[] starts = new long[PHASES];
+    private final long[] frameNanos = new long[PHASES];
+    private final double[] p50s = new double[PHASES];
+    private final double[] p99s = new double[PHASES];
+    private final String[] overlayLines = new String[PHASES+1];
+    private int windowFrames = 0;
+    private long frameNum = 0;
+
+    // CSV export; rows are built in a reused buffer, then copied into a reused char array for writing
+    private Writer csv = null;
+    private final StringBuilder row = new StringBuilder();
+    private char[] rowChars = new char[256];
+
+    public FrameProfiler() {
+        for (int i=0; i<overlayLines.length; i++) overlayLines[i] = "";
+    }
+
+    /**
+     * marks the start of a phase
+     *
+     * @param phase one of the PHASE constants
+     */
+    public void begin (int phase) {starts[phase] = System.nanoTime();}
+
+    /**
+     * marks the end of a phase; a phase run several times in a frame is summed
+     *
+     * @param phase one of the PHASE constants
+     */
+    public void end (int phase) {frameNanos[phase] += System.nanoTime()-starts[phase];}
+
+    /**
+     * records the timings of the frame that just ended, and starts a new one
+     *
+     * @param sim the simulation the frame advanced, for entity counts
+     */
+    public void endFrame (SimulationEngine sim) {
+        for (int p=0; p<PHASES; p++) {
+            histograms[p][(int)Math.min(BUCKETS-1, frameNanos[p]/BUCKET_NANOS)]++;
+        }
+        if (csv!=null) writeRow(sim);
+        for (int p=0; p<PHASES; p++) frameNanos[p] = 0;
+        frameNum++;
+        if (++windowFrames==WINDOW_FRAMES) summarise(sim);
+    }
+
+    /**
+     * returns a summary of the last window of frames, one line per phase then one of entity counts and the seed
+     * the lines only change once per window, so they can be drawn each frame without formatting
+     *
+     * @return the overlay lines; not to be modified
+     */
+    public String[] getOverlayLines() {return overlayLines;}
+
+    // getters
+    public double getP50 (int phase) {return p50s[phase];}
+    public double getP99 (int phase) {return p99s[phase];}
+    public boolean isWritingCsv() {return csv!=null;}
+
+    /**
+     * starts streaming one row per frame to a CSV file, replacing any previous contents
+     *
+     * @param filePath the file to write to
+     */
+    public void startCsv (String filePath) {
+        stopCsv();
+        try {
+            csv = new BufferedWriter(new FileWriter(filePath));
+            csv.write("frame,level,wave,enemies,towers,projectiles");
+            for (String name : PHASE_NAMES) csv.write(","+name+"_us");
+            csv.write("\n");
+        } catch (IOException e) {
+            e.printStackTrace();
+            csv = null;
+        }
+    }
+
+    /* stops streaming to the CSV file, if it was started */
+    public void stopCsv() {
+        if (csv==null) return;
+        try {
+            csv.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        csv = null;
+    }
+
+    private void writeRow (SimulationEngine sim) {
+        row.setLength(0);
+        row.append(frameNum).append(',').append(sim.getLevelNum()).append(',').append(sim.getWaveNum())
+           .append(',').append(sim.countEnemies()).append(',').append(sim.countTowers()).append(',').append(sim.countProjectiles());
+        for (int p=0; p<PHASES; p++) row.append(',').append((long)(frameNanos[p]/NANOS_PER_US));
+        row.append('\n');
+        if (row.length()>rowChars.length) rowChars = new char[row.length()];
+        row.getChars(0, row.length(), rowChars, 0);
+        try {
+            csv.write(rowChars, 0, row.length());
+        } catch (IOException e) {
+            e.printStackTrace();
+            stopCsv();
+        }
+    }
+
+    // computes percentiles of the window, and refreshes the overlay lines
+    private void summarise (SimulationEngine sim) {
+        for (int p=0; p<PHASES; p++) {
+            p50s[p] = percentile(histograms[p], 0.5);
+            p99s[p] = percentile(histograms[p], 0.99);
+            overlayLines[p] = String.format("%-8s p50 %6.2f ms  p99 %6.2f ms", PHASE_NAMES[p], p50s[p], p99s[p]);
+            Arrays.fill(histograms[p], 0);
+        }
+        overlayLines[PHASES] = String.format("enemies %d  towers %d  projectiles %d  seed %d", sim.countEnemies(), sim.countTowers(), sim.countProjectiles(), sim.getSeed());
+        windowFrames = 0;
+        // flushed once per window, so little is lost if the game is closed without stopping the export
+        if (csv!=null) {
+            try {
+                csv.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+                stopCsv();
+            }
+        }
+    }
+
+    // the upper bound of the bucket holding a given share of the window's frames, in ms
+    private double percentile (int[] histogram, double share) {
+        int target = (int)Math.ceil(share*windowFrames);
+        int seen = 0;
+        for (int b=0; b<BUCKETS; b++) {
+            seen += histogram[b];
+            if (seen>=target) return (b+1)*BUCKET_NANOS/NANOS_PER_MS;
+        }
+        return BUCKETS*BUCKET_NANOS/NANOS_PER_MS;
+    }
+}
@@ -1,17 +1,32 @@
 package game;
 
-/* an identifiable game entity, with its own name and ID */
+/* an identifiable game entity, with its own name and registry handle
+   simulation state is kept in a Body; entities are drawn by submitting commands to a RenderBuffer */
 public abstract class GameEntity {
-    private static int index = 0;
+    private static final long NO_HANDLE = -1;
 
-    public final int id;
     public final String entityName;
-    public final Sprite sprite;
+    public final Body body;
+    private final String spritePath;
+    long handle = NO_HANDLE;
 
     // constructor
-    public GameEntity (String nentityName, String spritePath) {
-        id = index++;
+    public GameEntity (String nentityName, String nspritePath) {
         entityName = nentityName;
-        sprite = new Sprite(spritePath);
+        spritePath = nspritePath;
+        body = new Body(nspritePath);
     }
-}
\ No newline at end of file
+
+    // handle of the entity in its simulation's registry
+    public long getHandle() {return handle;}
+
+    /**
+     * submits a draw of the entity at its current simulated position and rotation
+     *
+     * @param buffer the buffer to submit to
+     * @param layer the layer to draw in
+     */
+    public void submit (RenderBuffer buffer, int layer) {
+        buffer.submit(layer, spritePath, body.getX(), body.getY(), body.getRotation());
+    }
+}
@@ -0,0 +1,149 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import bagel.util.Point;
+
+/* a lane polyline, precomputed into a cumulative arc-length table
+   entities on the lane are located by a single distance from its start;
+   positions and rotations are looked up by binary search over the table */
+public class Lane {
+    private final List<Point> points;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] cumulative; // distance from the start of the lane to each point
+    private final double[] angles;     // direction of the segment starting at each point
+
+    // constructor
+    public Lane (List<Point> npoints) {
+        points = Collections.unmodifiableList(new ArrayList<Point>(npoints));
+        int n = points.size();
+        xs = new double[n];
+        ys = new double[n];
+        cumulative = new double[n];
+        angles = new double[n];
+        for (int i=0; i<n; i++) {
+            xs[i] = points.get(i).x;
+            ys[i] = points.get(i).y;
+            if (i>0) {
+                cumulative[i] = cumulative[i-1] + Math.sqrt((xs[i]-xs[i-1])*(xs[i]-xs[i-1]) + (ys[i]-ys[i-1])*(ys[i]-ys[i-1]));
+                angles[i-1] = Math.atan2(ys[i]-ys[i-1], xs[i]-xs[i-1]);
+            }
+        }
+        if (n>1) angles[n-1] = angles[n-2];
+    }
+
+    // getters
+    public List<Point> getPoints() {return points;}
+    public double getLength() {return cumulative[cumulative.length-1];}
+
+    /**
+     * returns the position at a set distance along the lane
+     *
+     * @param distance the distance from the start of the lane, clamped to the lane's ends
+     * @return the Point at that distance
+     */
+    public Point positionAt (double distance) {
+        int i = segmentAt(distance);
+        if (i==cumulative.length-1) return points.get(i);
+        double t = Math.max(0.0, distance-cumulative[i])/(cumulative[i+1]-cumulative[i]);
+        return new Point(xs[i]+(xs[i+1]-xs[i])*t, ys[i]+(ys[i+1]-ys[i])*t);
+    }
+
+    /**
+     * moves a Body to a set distance along the lane, facing the direction of travel, in place
+     *
+     * @param body the Body to be moved
+     * @param distance the distance from the start of the lane, clamped to the lane's ends
+     */
+    public void place (Body body, double distance) {
+        int i = segmentAt(distance);
+        if (i==cumulative.length-1) body.setPosition(xs[i], ys[i]);
+        else {
+            double t = Math.max(0.0, distance-cumulative[i])/(cumulative[i+1]-cumulative[i]);
+            body.setPosition(xs[i]+(xs[i+1]-xs[i])*t, ys[i]+(ys[i+1]-ys[i])*t);
+        }
+        body.setRotation(angles[i]);
+    }
+
+    /**
+     * returns the direction of travel at a set distance along the lane
+     *
+     * @param distance the distance from the start of the lane, clamped to the lane's ends
+     * @return the angle of the lane segment at that distance, in radians
+     */
+    public double rotationAt (double distance) {return angles[segmentAt(distance)];}
+
+    /**
+     * finds the parts of the lane within a circle, such as a tower's range, as distance intervals
+     * each part lies on a single segment, so distance from the centre is convex within it,
+     * and the closest point of the part is also given
+     *
+     * @param cx the x coordinate of the centre
+     * @param cy the y coordinate of the centre
+     * @param radius the radius of the circle
+     * @return (start, end, closest) distance triples, in lane order
+     */
+    public double[] coverage (double cx, double cy, double radius) {
+        double[] result = new double[0];
+        int count = 0;
+        for (int i=0; i+1<cumulative.length; i++) {
+            double length = cumulative[i+1]-cumulative[i];
+            if (length<=0) continue;
+            // solve |p + t*d - c|^2 = r^2 for the segment parameter t
+            double dx = xs[i+1]-xs[i];
+            double dy = ys[i+1]-ys[i];
+            double px = xs[i]-cx;
+            double py = ys[i]-cy;
+            double a = dx*dx + dy*dy;
+            double b = 2*(dx*px + dy*py);
+            double c = px*px + py*py - radius*radius;
+            double discriminant = b*b - 4*a*c;
+            if (discriminant<=0) continue;
+            double root = Math.sqrt(discriminant);
+            double t0 = Math.max(0.0, (-b-root)/(2*a));
+            double t1 = Math.min(1.0, (-b+root)/(2*a));
+            if (t0>=t1) continue;
+            double closest = Math.min(t1, Math.max(t0, -b/(2*a)));
+            if (count+3>result.length) result = Arrays.copyOf(result, Math.max(6, result.length*2));
+            result[count++] = cumulative[i]+t0*length;
+            result[count++] = cumulative[i]+t1*length;
+            result[count++] = cumulative[i]+closest*length;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * returns the distance from the start of the lane to the start of a segment
+     *
+     * @param segment the index of the segment, as returned by segmentAt
+     * @return the distance along the lane at which the segment starts
+     */
+    public double startOf (int segment) {return cumulative[segment];}
+
+    /**
+     * returns the index of the lane segment at a set distance
+     * zero-length segments are skipped, so the segment returned always has a defined direction
+     *
+     * @param distance the distance from the start of the lane
+     * @return the index of the last point at or before the distance, clamped to the lane's ends
+     */
+    public int segmentAt (double distance) {
+        int low = 0;
+        int high = cumulative.length-1;
+        if (distance<=0) {
+            while (low<high && cumulative[low+1]<=0) low++;
+            return low;
+        }
+        if (distance>=cumulative[high]) return high;
+        while (low<high) {
+            int mid = (low+high+1)>>>1;
+            if (cumulative[mid]<=distance) low = mid;
+            else high = mid-1;
+        }
+        return low;
+    }
+}
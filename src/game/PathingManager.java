@@ -11,39 +11,93 @@ public class PathingManager {
     private static final double LANE_WIDTH = 25;
 
     /**
-     * computes if a sprite collides with another sprite
+     * computes if the bounding boxes of 2 Bodies overlap, without allocating either box
      *
-     * @param colliding the sprite to be tested for collision
-     * @param collidable the sprite that can be collided into
-     * @return whether the sprite will collide
+     * @param colliding the Body to be tested for collision
+     * @param collidable the Body that can be collided into
+     * @return whether the Body will collide
      */
-    protected static boolean collisionCheck (Sprite colliding, Sprite collidable) {
-        Rectangle collidingBound = colliding.getBoundingBoxAtPosition();
-        Rectangle collidableBound = collidable.getBoundingBoxAtPosition();
-        if (collides(collidingBound, collidableBound)) return true;
+    protected static boolean collisionCheck (Body colliding, Body collidable) {
+        double r1L = colliding.getX()-colliding.getWidth()/2;
+        double r1R = colliding.getX()+colliding.getWidth()/2;
+        double r1T = colliding.getY()-colliding.getHeight()/2;
+        double r1B = colliding.getY()+colliding.getHeight()/2;
+        double r2L = collidable.getX()-collidable.getWidth()/2;
+        double r2R = collidable.getX()+collidable.getWidth()/2;
+        double r2T = collidable.getY()-collidable.getHeight()/2;
+        double r2B = collidable.getY()+collidable.getHeight()/2;
+        return !(r2R<r1L | r1R<r2L | r2B<r1T | r1B<r2T);
+    }
+
+    /**
+     * checks whether a moving Body collided with another at any point of its last movement
+     * the path from the previous position is tested against the other Body's bounds, grown by the mover's size
+     *
+     * @param colliding the Body that moved, at its new position
+     * @param fromX the x coordinate it moved from
+     * @param fromY the y coordinate it moved from
+     * @param collidable the Body which it may have collided with
+     * @return whether the Bodies touched during the movement
+     */
+    protected static boolean sweptCollisionCheck (Body colliding, double fromX, double fromY, Body collidable) {
+        double halfWidth = (colliding.getWidth()+collidable.getWidth())/2;
+        double halfHeight = (colliding.getHeight()+collidable.getHeight())/2;
+        double movedX = colliding.getX()-fromX;
+        double movedY = colliding.getY()-fromY;
+        // the share of the movement spent within the grown bounds on each axis, intersected
+        double enter = Math.max(entry(fromX, movedX, collidable.getX()-halfWidth, collidable.getX()+halfWidth),
+                                entry(fromY, movedY, collidable.getY()-halfHeight, collidable.getY()+halfHeight));
+        double exit = Math.min(exit(fromX, movedX, collidable.getX()-halfWidth, collidable.getX()+halfWidth),
+                               exit(fromY, movedY, collidable.getY()-halfHeight, collidable.getY()+halfHeight));
+        return Math.max(0.0, enter)<=Math.min(1.0, exit);
+    }
+
+    /**
+     * computes if a bounding box collides with another bounding box
+     *
+     * @param colliding the bounding box to be tested for collision
+     * @param collidable the bounding box that can be collided into
+     * @return whether the bounding box will collide
+     */
+    protected static boolean collisionCheck (Rectangle colliding, Rectangle collidable) {
+        if (collides(colliding, collidable)) return true;
         return false;
     }
 
     /**
-     * computes if a sprite collides with any of a list of sprites
+     * computes if a bounding box collides with any of a list of bounding boxes
      *
-     * @param colliding the sprite to be tested for collision
-     * @param collidable the sprites that can be collided into
-     * @return whether the sprite will collide
+     * @param colliding the bounding box to be tested for collision
+     * @param collidable the bounding boxes that can be collided into
+     * @return whether the bounding box will collide
      */
-    protected static boolean collisionCheck (Sprite colliding, List<Sprite> collidable) {
-        for (Sprite s : collidable) {if (collisionCheck(colliding, s)) return true;}
+    protected static boolean collisionCheck (Rectangle colliding, List<Rectangle> collidable) {
+        for (Rectangle r : collidable) {if (collisionCheck(colliding, r)) return true;}
         return false;
     }
 
     /**
-     * computes if a sprite collides with the hitbox of a given lane
+     * computes if a bounding box collides with the hitbox of a given lane
      *
-     * @param colliding the sprite to be tested for collision
+     * @param colliding the bounding box to be tested for collision
      * @param lane a list of points indicating a lane
-     * @return whether the sprite will collide
+     * @return whether the bounding box will collide
      */
-    protected static boolean laneCollisionCheck (Sprite colliding, List<Point> lane) {
+    protected static boolean laneCollisionCheck (Rectangle colliding, List<Point> lane) {
+        for (Rectangle laneBox : laneBoxes(lane)) {
+            if (collides(laneBox, colliding)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * computes the hitbox of a given lane as a list of rectangles
+     * diagonal segments are subdivided into lane-width squares along their length
+     *
+     * @param lane a list of points indicating a lane
+     * @return the rectangles covering the lane
+     */
+    protected static List<Rectangle> laneBoxes (List<Point> lane) {
         List<Rectangle> laneBoxes = new LinkedList<Rectangle>();
         for (int i=1; i<lane.size(); i++) {
             Point point1 = lane.get(i-1);
@@ -63,10 +117,7 @@ public class PathingManager {
                 laneBoxes.add(new Rectangle(topLeft, Math.abs(point1.x-point2.x)+LANE_WIDTH, Math.abs(point1.y-point2.y)+LANE_WIDTH));
             }
         }
-        for (Rectangle laneBox : laneBoxes) {
-            if (collides(laneBox, colliding.getBoundingBoxAtPosition())) return true;
-        }
-        return false;
+        return laneBoxes;
     }
 
     /**
@@ -78,26 +129,27 @@ public class PathingManager {
      * @return where the Moveable will be at after one interval of movement
      */
     protected static Point newPosition (Point current, Point destination, double distMoved) {
-        boolean staticX = destination.x == current.x;
-        boolean staticY = destination.y == current.y;
-        // horizontal-only movement
-        if (!staticX & staticY) {
-            return new Point(moveOnAxis(current.x, destination.x, distMoved), current.y);
-        }
-        // vertical-only movement
-        else if (staticX & !staticY) {
-            return new Point(current.x, moveOnAxis(current.y, destination.y, distMoved));
-        }
-        // diagonal movement
-        else if (!staticX & !staticY) {
-            double ratio = Math.abs((destination.x-current.x)/(destination.y-current.y));
-            // calculate new position using Euclidian distance
-            double xMovement = Math.sqrt(distMoved*distMoved/(1+1/(ratio*ratio)));
-            double newX = moveOnAxis(current.x, destination.x, xMovement);
-            double newY = moveOnAxis(current.y, destination.y, xMovement/ratio);
-            return new Point(newX, newY);
-        }
-        return current;
+        double dist = Math.sqrt((destination.x-current.x)*(destination.x-current.x) + (destination.y-current.y)*(destination.y-current.y));
+        if (dist==0) return current;
+        return new Point(moveOnAxis(current.x, destination.x, distMoved*Math.abs(destination.x-current.x)/dist),
+            moveOnAxis(current.y, destination.y, distMoved*Math.abs(destination.y-current.y)/dist));
+    }
+
+    /**
+     * moves a Body towards a destination by one interval of movement, in place
+     * each axis moves by its share of the Euclidean distance, stopping at the destination
+     *
+     * @param mover the Body to be moved
+     * @param destX the x coordinate the Body needs to go to
+     * @param destY the y coordinate the Body needs to go to
+     * @param distMoved the distance that can be moved in one interval
+     */
+    protected static void moveTowards (Body mover, double destX, double destY, double distMoved) {
+        double x = mover.getX();
+        double y = mover.getY();
+        double dist = Math.sqrt((destX-x)*(destX-x) + (destY-y)*(destY-y));
+        if (dist==0) return;
+        mover.setPosition(moveOnAxis(x, destX, distMoved*Math.abs(destX-x)/dist), moveOnAxis(y, destY, distMoved*Math.abs(destY-y)/dist));
     }
 
     /**
@@ -108,7 +160,20 @@ public class PathingManager {
      * @return the angle at which the Moveable should face, in radians
      */
     protected static double newRotation (Point current, Point destination) {
-        return Math.atan2((destination.y-current.y), (destination.x-current.x));
+        return newRotation(current.x, current.y, destination.x, destination.y);
+    }
+
+    /**
+     * computes a new rotation angle of a moving entity during an interval of its movement
+     *
+     * @param x the x coordinate the Moveable is at
+     * @param y the y coordinate the Moveable is at
+     * @param destX the x coordinate the Moveable needs to go to
+     * @param destY the y coordinate the Moveable needs to go to
+     * @return the angle at which the Moveable should face, in radians
+     */
+    protected static double newRotation (double x, double y, double destX, double destY) {
+        return Math.atan2((destY-y), (destX-x));
     }
 
     /**
@@ -130,6 +195,18 @@ public class PathingManager {
         return !(r2R<r1L | r1R<r2L | r2B<r1T | r1B<r2T);
     }
 
+    // the share of a movement along one axis at which it enters the range [low, high]
+    private static double entry (double from, double moved, double low, double high) {
+        if (moved==0) return (from>=low & from<=high) ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        return Math.min((low-from)/moved, (high-from)/moved);
+    }
+
+    // the share of a movement along one axis at which it leaves the range [low, high]
+    private static double exit (double from, double moved, double low, double high) {
+        if (moved==0) return (from>=low & from<=high) ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+        return Math.max((low-from)/moved, (high-from)/moved);
+    }
+
     /**
      * computes one-axis movements, moving directly to destination if possible
      *
@@ -0,0 +1,169 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import bagel.util.Point;
+import bagel.util.Rectangle;
+
+/* per-level occupancy grid for tower placement, built once from the map bounds, UI panels and lane
+   placed towers are stamped in as they are added; any rectangle is then checked against
+   the grid through summed-area tables. any cell a blocker touches is occupied, so a blocked cell
+   inside the edge of a tower's footprint lies wholly under it and blocks it. a blocker may only
+   clip a cell on the footprint's edge, so the blockers crossing those cells, listed per cell,
+   are tested exactly, and the result matches testing the footprint against every rectangle.
+   blockers off the map are kept in the cells along its edge */
+class PlacementGrid {
+    private static final double CELL_SIZE = 4;
+    private static final int NO_ENTRY = -1;
+
+    private final int columns;
+    private final int rows;
+    private final boolean[] panelCells;  // blocked for all towers
+    private final boolean[] groundCells; // blocked for ground towers: panels, lane and placed towers
+    private final boolean[] panelFull;   // lying wholly inside a panel
+    private final boolean[] groundFull;  // lying wholly inside a panel, lane box or placed tower
+    private final int[] panelSums;
+    private final int[] groundSums;
+    // blockers by the cells their edges cross, as linked lists of entries; the panels are added first
+    private final List<Rectangle> blockers = new ArrayList<Rectangle>();
+    private int panelCount = 0;
+    private final int[] firstEntry;
+    private int[] nextEntry = new int[64];
+    private int[] entryBlocker = new int[64];
+    private int entries = 0;
+
+    /**
+     * builds the grid for a level
+     *
+     * @param width the width of the map
+     * @param height the height of the map
+     * @param panels bounding boxes of UI panels that no tower can be placed on
+     * @param lane a list of points indicating the lane that ground towers cannot be placed on
+     */
+    PlacementGrid (double width, double height, List<Rectangle> panels, List<Point> lane) {
+        columns = Math.max(1, (int)Math.ceil(width/CELL_SIZE));
+        rows = Math.max(1, (int)Math.ceil(height/CELL_SIZE));
+        panelCells = new boolean[columns*rows];
+        groundCells = new boolean[columns*rows];
+        panelFull = new boolean[columns*rows];
+        groundFull = new boolean[columns*rows];
+        panelSums = new int[(columns+1)*(rows+1)];
+        groundSums = new int[(columns+1)*(rows+1)];
+        firstEntry = new int[columns*rows];
+        Arrays.fill(firstEntry, NO_ENTRY);
+        for (Rectangle r : panels) {add(r, true);}
+        for (Rectangle r : PathingManager.laneBoxes(lane)) {add(r, false);}
+        summate(panelCells, panelSums);
+        summate(groundCells, groundSums);
+    }
+
+    /**
+     * marks the area of a newly placed ground tower as occupied
+     *
+     * @param bounds the bounding box of the tower
+     */
+    void stamp (Rectangle bounds) {
+        add(bounds, false);
+        summate(groundCells, groundSums);
+    }
+
+    /**
+     * marks the areas of several ground towers as occupied, summing the grid once for all of them
+     *
+     * @param bounds the bounding boxes of the towers
+     */
+    void stampAll (List<Rectangle> bounds) {
+        for (Rectangle r : bounds) add(r, false);
+        summate(groundCells, groundSums);
+    }
+
+    /**
+     * checks if a tower can be placed without overlapping anything it may not overlap
+     *
+     * @param bounds the bounding box of the tower being placed
+     * @param isAirSupport whether the tower is air support, which may be placed over the lane and other towers
+     * @return whether the bounding box overlaps no blocker, touching edges counting as overlapping
+     */
+    boolean isFree (Rectangle bounds, boolean isAirSupport) {
+        int[] sums = isAirSupport ? panelSums : groundSums;
+        int c0 = column(bounds.left());
+        int c1 = column(bounds.right());
+        int r0 = row(bounds.top());
+        int r1 = row(bounds.bottom());
+        if (count(sums, c0, r0, c1, r1)==0) return true;
+        if (count(sums, c0+1, r0+1, c1-1, r1-1)>0) return false;
+        for (int x=c0; x<=c1; x++) {
+            if (!isFreeAt(x, r0, bounds, isAirSupport) || !isFreeAt(x, r1, bounds, isAirSupport)) return false;
+        }
+        for (int y=r0+1; y<r1; y++) {
+            if (!isFreeAt(c0, y, bounds, isAirSupport) || !isFreeAt(c1, y, bounds, isAirSupport)) return false;
+        }
+        return true;
+    }
+
+    // checks a cell on the edge of a footprint against the blockers crossing it
+    private boolean isFreeAt (int x, int y, Rectangle bounds, boolean isAirSupport) {
+        int cell = y*columns+x;
+        if (!(isAirSupport ? panelCells : groundCells)[cell]) return true;
+        if ((isAirSupport ? panelFull : groundFull)[cell]) return false;
+        for (int e=firstEntry[cell]; e!=NO_ENTRY; e=nextEntry[e]) {
+            int b = entryBlocker[e];
+            if ((b<panelCount || !isAirSupport) && PathingManager.collisionCheck(bounds, blockers.get(b))) return false;
+        }
+        return true;
+    }
+
+    // counts the occupied cells in an inclusive range of cells, none if the range is empty
+    private int count (int[] sums, int c0, int r0, int c1, int r1) {
+        if (c0>c1 || r0>r1) return 0;
+        int w = columns+1;
+        return sums[(r1+1)*w+c1+1] - sums[r0*w+c1+1] - sums[(r1+1)*w+c0] + sums[r0*w+c0];
+    }
+
+    // marks every cell a blocker touches, and those inside its edge cells as full; the edge cells list the blocker
+    private void add (Rectangle r, boolean isPanel) {
+        int index = blockers.size();
+        blockers.add(r);
+        if (isPanel) panelCount++;
+        int x0 = column(r.left());
+        int x1 = column(r.right());
+        int y0 = row(r.top());
+        int y1 = row(r.bottom());
+        for (int y=y0; y<=y1; y++) {
+            for (int x=x0; x<=x1; x++) {
+                int cell = y*columns+x;
+                groundCells[cell] = true;
+                if (isPanel) panelCells[cell] = true;
+                if (x>x0 && x<x1 && y>y0 && y<y1) {
+                    groundFull[cell] = true;
+                    if (isPanel) panelFull[cell] = true;
+                } else {
+                    if (entries==nextEntry.length) {
+                        nextEntry = Arrays.copyOf(nextEntry, entries*2);
+                        entryBlocker = Arrays.copyOf(entryBlocker, entries*2);
+                    }
+                    nextEntry[entries] = firstEntry[cell];
+                    entryBlocker[entries] = index;
+                    firstEntry[cell] = entries++;
+                }
+            }
+        }
+    }
+
+    // builds a summed-area table, where sums[y][x] counts the occupied cells above and left of (x,y)
+    private void summate (boolean[] cells, int[] sums) {
+        int w = columns+1;
+        for (int y=0; y<rows; y++) {
+            int rowSum = 0;
+            for (int x=0; x<columns; x++) {
+                if (cells[y*columns+x]) rowSum++;
+                sums[(y+1)*w+x+1] = sums[y*w+x+1] + rowSum;
+            }
+        }
+    }
+
+    private int column (double x) {return Math.min(columns-1, Math.max(0, (int)Math.floor(x/CELL_SIZE)));}
+    private int row (double y) {return Math.min(rows-1, Math.max(0, (int)Math.floor(y/CELL_SIZE)));}
+}
@@ -1,27 +1,26 @@
 package game;
 
-/* singleton class for tracking player state */
+import java.nio.ByteBuffer;
+
+/* tracks player state, one instance per simulation */
 public class Player {
-    private final int STARTING_LIVES = 25;
-    private final int STARTING_MONEY = 500;
+    public static final int STARTING_LIVES = 25;
+    public static final int STARTING_MONEY = 500;
 
     private int lives = STARTING_LIVES;
     private int money = STARTING_MONEY;
+    private int leaks = 0; // enemies that have reached the end of the lane this level
 
     private boolean winner = false;
     private boolean loser = false;
 
-    // singleton initialisation
-    private static Player instance = null; 
-    private Player() {}
-    public static Player getInstance() {
-        if (instance == null) instance = new Player();
-        return instance;
-    }
+    // constructor
+    Player() {}
 
     // getters
     public int getLives() {return lives;}
     public int getMoney() {return money;}
+    public int getLeaks() {return leaks;}
     public boolean isWinner() {return winner;}
     public boolean isLoser() {return loser;}
 
@@ -30,17 +29,34 @@ public class Player {
     public boolean isSuspended() {return winner|loser;}
 
     // state management
-    public void resetState() {lives = STARTING_LIVES; money = STARTING_MONEY;}
+    public void resetState() {lives = STARTING_LIVES; money = STARTING_MONEY; leaks = 0;}
 
     public void win() {winner = true;}
 
     public void penalise (int livesLost) {
-        if (!isSuspended()) lives = Math.max(0, lives-livesLost);
+        if (!isSuspended()) {lives = Math.max(0, lives-livesLost); leaks++;}
         loser = lives<=0;
     }
 
     public void reward (int amount) {money+=amount;}
 
+    // saving and restoring, for Snapshot
+    void write (ByteBuffer out) {
+        out.putInt(lives);
+        out.putInt(money);
+        out.putInt(leaks);
+        out.put((byte)((winner ? 1 : 0) | (loser ? 2 : 0)));
+    }
+
+    void read (ByteBuffer in) {
+        lives = in.getInt();
+        money = in.getInt();
+        leaks = in.getInt();
+        byte flags = in.get();
+        winner = (flags&1)!=0;
+        loser = (flags&2)!=0;
+    }
+
     public boolean spendIfEnough (int cost) {
         if (isSuspended()) return false;
         if (canAfford(cost)) {money-=cost; return true;}
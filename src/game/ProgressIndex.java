@@ -0,0 +1,281 @@
+package game;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import cfg.TowerData;
+
+/* Enemy entities ordered by distance travelled along the lane, for choosing tower targets
+   the order barely changes between ticks, so it is repaired with an insertion sort when next queried,
+   with new enemies sorted separately and merged in; a max-health segment tree over the order
+   answers strongest-enemy queries. a tower's range covers a few distance intervals of the lane,
+   so each targeting strategy is answered by binary searches within those intervals */
+class ProgressIndex {
+    private static final int NO_SLOT = -1;
+    private static final int FIRST = TowerData.targetingFromName(TowerData.FIRST);
+    private static final int LAST = TowerData.targetingFromName(TowerData.LAST);
+    private static final int STRONGEST = TowerData.targetingFromName(TowerData.STRONGEST);
+
+    /**
+     * scores a target under a targeting strategy, the best target scoring highest
+     * shared with Swarm, so candidates from the index and from swarms can be compared
+     *
+     * @param targeting the targeting strategy, from TowerData
+     * @param health the target's health
+     * @param distance the target's distance along the lane
+     * @param distanceSquared the target's squared distance from the tower
+     * @param laneLength the length of the lane
+     * @return the target's score
+     */
+    static double score (int targeting, int health, double distance, double distanceSquared, double laneLength) {
+        if (targeting==FIRST) return distance;
+        if (targeting==LAST) return -distance;
+        if (targeting==STRONGEST) return health+distance/(laneLength+1); // further along breaks ties
+        return -distanceSquared;
+    }
+
+    private Enemy[] order = new Enemy[0];
+    private double[] keys = new double[0]; // distances, parallel to order
+    private int count = 0;
+    private Enemy[] added = new Enemy[0];  // enemies not yet in the order
+    private int addedCount = 0;
+    private int[] strongest = new int[2];  // segment tree of order slots, leaves from strongest.length/2
+    private boolean dirty = true;
+
+    // marks the order as out of date, once enemies have moved, spawned or been removed
+    void invalidate() {dirty = true;}
+
+    /**
+     * brings the order up to date if needed, after which target only reads the index until it is next invalidated,
+     * so it may be called from several threads at once
+     *
+     * @param enemies the registry of all Enemy entities
+     */
+    void prepare (EntityRegistry<Enemy> enemies) {if (dirty) rebuild(enemies);}
+
+    /**
+     * records that an Enemy's health changed, updating the segment tree if the order is current
+     *
+     * @param e the Enemy in question
+     */
+    void healthChanged (Enemy e) {
+        if (dirty || e.progressSlot==NO_SLOT) return;
+        int node = (strongest.length>>1) + e.progressSlot;
+        for (node>>=1; node>0; node>>=1) strongest[node] = stronger(strongest[2*node], strongest[2*node+1]);
+    }
+
+    /**
+     * chooses the target of a tower among the Enemy entities strictly within its range
+     *
+     * @param sim the simulation whose Enemy entities are searched
+     * @param coverage the tower's coverage of the lane, from Lane.coverage
+     * @param targeting the tower's targeting strategy, from TowerData
+     * @param x the x coordinate of the tower
+     * @param y the y coordinate of the tower
+     * @param range the range of the tower
+     * @return the chosen Enemy, or null if none are in range
+     */
+    Enemy target (SimulationEngine sim, double[] coverage, int targeting, double x, double y, double range) {
+        if (dirty) rebuild(sim.enemies);
+        double rangeSquared = range*range;
+        int best = NO_SLOT;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c=0; c<coverage.length; c+=3) {
+            int low = firstFrom(coverage[c]);
+            int high = upperBound(coverage[c+1])-1;
+            if (low>high) continue;
+            int slot = NO_SLOT;
+            // ends of intervals are exact to rounding error only, so candidates are checked against the true range
+            if (targeting==FIRST) {
+                while (high>=low && !inRange(high, x, y, rangeSquared)) high--;
+                if (high>=low) slot = high;
+            } else if (targeting==LAST) {
+                while (low<=high && !inRange(low, x, y, rangeSquared)) low++;
+                if (low<=high) slot = low;
+            } else if (targeting==STRONGEST) {
+                // distance from the tower is convex within an interval, so once both ends are in range, every slot between is
+                while (low<=high && !inRange(low, x, y, rangeSquared)) low++;
+                while (high>=low && !inRange(high, x, y, rangeSquared)) high--;
+                if (low<=high) slot = strongestIn(low, high);
+            } else {
+                // distance from the tower is convex within an interval, so the closest enemy is next to the closest point
+                int after = Math.max(low, Math.min(high, lowerBound(coverage[c+2])));
+                double closest = rangeSquared;
+                for (int s=Math.max(low, after-1); s<=Math.min(high, after+1); s++) {
+                    double d = order[s].body.getDistanceSquaredFrom(x, y);
+                    if (d<closest) {slot = s; closest = d;}
+                }
+            }
+            if (slot==NO_SLOT) continue;
+            double score = score(targeting, order[slot].getHealth(), keys[slot], order[slot].body.getDistanceSquaredFrom(x, y), sim.getLane().getLength());
+            if (best==NO_SLOT || score>bestScore) {best = slot; bestScore = score;}
+        }
+        return best==NO_SLOT ? null : order[best];
+    }
+
+    /**
+     * queues a newly spawned Enemy to be merged into the order
+     *
+     * @param e the Enemy in question
+     */
+    void add (Enemy e) {
+        if (addedCount==added.length) added = Arrays.copyOf(added, Math.max(16, added.length*2));
+        added[addedCount++] = e;
+        dirty = true;
+    }
+
+    /**
+     * writes the order and the queued enemies for a save, as registry indices of the enemies still alive;
+     * the order is repaired by an insertion sort, so it is saved as it is rather than sorted
+     *
+     * @param out the buffer to write to
+     * @param enemies the registry of all Enemy entities
+     */
+    void write (ByteBuffer out, EntityRegistry<Enemy> enemies) {
+        writeLive(out, enemies, order, count);
+        writeLive(out, enemies, added, addedCount);
+    }
+
+    /**
+     * restores the order and the queued enemies saved by write, after the enemies themselves
+     * the rest is rebuilt when next queried
+     *
+     * @param in the buffer to read from
+     * @param enemies the registry of all Enemy entities
+     */
+    void read (ByteBuffer in, EntityRegistry<Enemy> enemies) {
+        count = in.getInt();
+        order = new Enemy[Math.max(16, count)];
+        keys = new double[order.length];
+        for (int i=0; i<count; i++) order[i] = enemies.at(in.getInt());
+        addedCount = in.getInt();
+        added = new Enemy[Math.max(16, addedCount)];
+        for (int i=0; i<addedCount; i++) added[i] = enemies.at(in.getInt());
+        dirty = true;
+    }
+
+    private static void writeLive (ByteBuffer out, EntityRegistry<Enemy> enemies, Enemy[] from, int n) {
+        int countAt = out.position();
+        out.putInt(0);
+        int live = 0;
+        for (int i=0; i<n; i++) {
+            int index = enemies.indexOf(from[i].getHandle());
+            if (index<0) continue;
+            out.putInt(index);
+            live++;
+        }
+        out.putInt(countAt, live);
+    }
+
+    // drops removed enemies, repairs the order, merges in new enemies, and rebuilds the segment tree
+    private void rebuild (EntityRegistry<Enemy> enemies) {
+        int kept = 0;
+        for (int i=0; i<count; i++) {
+            Enemy e = order[i];
+            if (!enemies.contains(e.getHandle())) {e.progressSlot = NO_SLOT; continue;}
+            order[kept] = e;
+            keys[kept] = e.getDistance();
+            kept++;
+        }
+        for (int i=kept; i<count; i++) order[i] = null;
+        count = kept;
+        // insertion sort, linear in the number of enemies that overtook another since the last query
+        for (int i=1; i<count; i++) {
+            Enemy e = order[i];
+            double key = keys[i];
+            int j = i-1;
+            while (j>=0 && keys[j]>key) {order[j+1] = order[j]; keys[j+1] = keys[j]; j--;}
+            order[j+1] = e;
+            keys[j+1] = key;
+        }
+        mergeAdded(enemies);
+        for (int i=0; i<count; i++) order[i].progressSlot = i;
+        buildSegmentTree();
+        dirty = false;
+    }
+
+    private void mergeAdded (EntityRegistry<Enemy> enemies) {
+        int n = 0;
+        for (int i=0; i<addedCount; i++) {
+            if (enemies.contains(added[i].getHandle())) added[n++] = added[i];
+        }
+        for (int i=n; i<addedCount; i++) added[i] = null;
+        addedCount = 0;
+        if (n==0) return;
+        Arrays.sort(added, 0, n, (a, b) -> Double.compare(a.getDistance(), b.getDistance()));
+        if (count+n>order.length) {
+            order = Arrays.copyOf(order, Math.max(16, 2*(count+n)));
+            keys = Arrays.copyOf(keys, order.length);
+        }
+        // merge from the back, so the existing order does not need a copy
+        int i = count-1;
+        int j = n-1;
+        for (int k=count+n-1; k>=0; k--) {
+            if (j<0 || (i>=0 && keys[i]>added[j].getDistance())) {order[k] = order[i]; keys[k] = keys[i]; i--;}
+            else {order[k] = added[j]; keys[k] = added[j].getDistance(); added[j] = null; j--;}
+        }
+        count += n;
+    }
+
+    private void buildSegmentTree() {
+        int leaves = 1;
+        while (leaves<count) leaves <<= 1;
+        if (strongest.length<2*leaves) strongest = new int[2*leaves];
+        leaves = strongest.length>>1;
+        for (int i=0; i<leaves; i++) strongest[leaves+i] = i<count ? i : NO_SLOT;
+        for (int node=leaves-1; node>0; node--) strongest[node] = stronger(strongest[2*node], strongest[2*node+1]);
+    }
+
+    // the strongest slot within an inclusive slot range
+    private int strongestIn (int low, int high) {
+        int leaves = strongest.length>>1;
+        int result = NO_SLOT;
+        for (int l=low+leaves, h=high+leaves+1; l<h; l>>=1, h>>=1) {
+            if ((l&1)==1) result = stronger(result, strongest[l++]);
+            if ((h&1)==1) result = stronger(result, strongest[--h]);
+        }
+        return result;
+    }
+
+    // the slot with more health, or the one further along on a tie
+    private int stronger (int a, int b) {
+        if (a==NO_SLOT) return b;
+        if (b==NO_SLOT) return a;
+        int ha = order[a].getHealth();
+        int hb = order[b].getHealth();
+        if (ha!=hb) return ha>hb ? a : b;
+        return a>b ? a : b;
+    }
+
+    private boolean inRange (int slot, double x, double y, double rangeSquared) {
+        return order[slot].body.getDistanceSquaredFrom(x, y)<rangeSquared;
+    }
+
+    // the first slot at or past the start of an interval; an interval from the start of the lane also covers enemies
+    // yet to enter, which have negative distances but are placed there
+    private int firstFrom (double start) {return start>0 ? lowerBound(start) : 0;}
+
+    // the first slot with a distance of at least the key
+    private int lowerBound (double key) {
+        int low = 0;
+        int high = count;
+        while (low<high) {
+            int mid = (low+high)>>>1;
+            if (keys[mid]<key) low = mid+1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    // the first slot with a distance greater than the key
+    private int upperBound (double key) {
+        int low = 0;
+        int high = count;
+        while (low<high) {
+            int mid = (low+high)>>>1;
+            if (keys[mid]<=key) low = mid+1;
+            else high = mid;
+        }
+        return low;
+    }
+}
@@ -1,44 +1,205 @@
 package game;
 
+import java.nio.ByteBuffer;
+
 import bagel.util.Point;
+import cfg.TowerData;
 
+/* a projectile fired by a Tower: either a target-locked shot, or a bomb that explodes after a delay
+   static methods manage projectile tracking, hits and explosions */
 public class Projectile {
     private static final double PROJECTILE_SPEED = 750;
     private static final double BOMB_EXPLODE_DELAY = 2;
+    private static final long NO_TARGET = -1;
+    private static final long STALE_TARGET = Long.MAX_VALUE; // a handle that never refers to a live Enemy
+    // kinds of target, for saving
+    private static final byte BOMB = 0;
+    private static final byte ENEMY = 1;
+    private static final byte SWARM = 2;
+
+    /**
+     * fires a new target-locked Projectile from a Tower
+     *
+     * @param sim the simulation the Projectile is fired in
+     * @param owner the Tower firing the Projectile
+     * @param target handle of the Enemy being fired at
+     * @param nposition where the Projectile is fired from
+     */
+    public static void addProjectile (SimulationEngine sim, Tower owner, long target, Point nposition) {
+        sim.projectiles.add(new Projectile(owner.entityName, target, nposition));
+    }
+
+    /**
+     * fires a new target-locked Projectile from a Tower at a swarm member
+     *
+     * @param sim the simulation the Projectile is fired in
+     * @param owner the Tower firing the Projectile
+     * @param swarm the swarm being fired at
+     * @param member id of the member being fired at
+     * @param nposition where the Projectile is fired from
+     */
+    static void addProjectile (SimulationEngine sim, Tower owner, Swarm swarm, int member, Point nposition) {
+        Projectile p = new Projectile(owner.entityName, NO_TARGET, nposition);
+        p.targetSwarm = swarm;
+        p.targetMember = member;
+        sim.projectiles.add(p);
+    }
+
+    /**
+     * drops a new bomb from a Tower
+     *
+     * @param sim the simulation the bomb is dropped in
+     * @param owner the Tower dropping the bomb
+     * @param nposition where the bomb is dropped
+     */
+    public static void addBomb (SimulationEngine sim, Tower owner, Point nposition) {
+        sim.projectiles.add(new Projectile(owner.entityName, NO_TARGET, nposition));
+    }
+
+    /**
+     * updates all Projectile positions, damaging targets that are hit
+     * explodes bombs that have timed out, damaging all Enemy entities in range;
+     * all explosions of the tick are resolved together once every Projectile has moved
+     * Projectiles whose target has already been removed are discarded
+     *
+     * @param sim the simulation whose Projectiles are updated
+     * @param frameTime amount of real time that one frame is shown for
+     */
+    public static void updateAll (SimulationEngine sim, double frameTime) {
+        for (int i=sim.projectiles.size()-1; i>=0; i--) {
+            Projectile p = sim.projectiles.at(i);
+            if (p.isBomb()) {
+                if (p.updateAndCheckTarget(frameTime, (Body)null)) {
+                    sim.explosions.add(p.body.getX(), p.body.getY(), p.getData().attackRadius, p.getData().attackDamage);
+                    sim.projectiles.removeAt(i);
+                }
+            } else if (p.targetSwarm!=null) {
+                if (!p.targetSwarm.isAlive(p.targetMember)) sim.projectiles.removeAt(i);
+                else if (p.updateAndCheckTarget(frameTime, p.targetSwarm.bodyOf(sim.getLane(), p.targetMember))) {
+                    p.targetSwarm.damage(p.targetMember, p.getData().attackDamage);
+                    sim.projectiles.removeAt(i);
+                }
+            } else {
+                Enemy target = sim.enemies.get(p.target);
+                if (target == null) sim.projectiles.removeAt(i);
+                else if (p.updateAndCheckTarget(frameTime, target)) {
+                    target.damage(p.getData().attackDamage);
+                    sim.projectiles.removeAt(i);
+                }
+            }
+        }
+        sim.explosions.resolve(sim);
+    }
+
+    /**
+     * restores a Projectile saved by write, after the enemies and swarms it may target
+     *
+     * @param sim the simulation the Projectile is restored to
+     * @param in the buffer to read from
+     * @param types the type names of the save
+     */
+    static void read (SimulationEngine sim, ByteBuffer in, Snapshot.Types types) {
+        String ownerName = types.towerName(in.getShort());
+        byte kind = in.get();
+        int index = in.getInt();
+        long target = kind==ENEMY ? (index<0 ? STALE_TARGET : sim.enemies.handleAt(index)) : NO_TARGET;
+        Projectile p = new Projectile(ownerName, target, new Point(0, 0));
+        if (kind==SWARM) p.targetSwarm = sim.swarms.get(index);
+        p.targetMember = in.getInt();
+        p.aliveFor = in.getDouble();
+        p.body.setPosition(in.getDouble(), in.getDouble());
+        p.body.setRotation(in.getDouble());
+        sim.projectiles.add(p);
+    }
 
     private double aliveFor;
-    private Enemy target;
-    private final Sprite sprite;
+    private final String ownerName; // towers are looked up by name, so bombs outlive the airplane that dropped them
+    private final long target;
+    private final String spritePath;
+    private final Body body;
+    private Swarm targetSwarm = null; // set instead of target when fired at a swarm member
+    private int targetMember = Swarm.NO_MEMBER;
 
     // constructor
-    public Projectile (String nspritePath, Point nposition) {
-        sprite = new Sprite(nspritePath, nposition);
-    }
-    public Projectile (Enemy ntarget, String nspritePath, Point nposition) {
+    private Projectile (String nownerName, long ntarget, Point nposition) {
+        ownerName = nownerName;
         target = ntarget;
-        sprite = new Sprite(nspritePath, nposition);
+        spritePath = getData().attackSpritePath;
+        body = new Body(spritePath, nposition);
     }
 
     // getters
-    public Point getPosition() {return sprite.getPosition();}
+    public Point getPosition() {return body.getPosition();}
     public double getAliveFor() {return aliveFor;}
-    public Enemy getTarget() {return target;}
+    public boolean isBomb() {return target==NO_TARGET & targetSwarm==null;}
+    private TowerData getData() {return Tower.DATA.get(ownerName);}
+
+    /**
+     * writes a Projectile's state for a save; a target that has gone is saved as one that can never be found,
+     * so the Projectile is discarded on its next update either way
+     *
+     * @param out the buffer to write to
+     * @param sim the simulation the Projectile is in
+     * @param types the type names of the save
+     */
+    void write (ByteBuffer out, SimulationEngine sim, Snapshot.Types types) {
+        out.putShort((short)types.towerId(ownerName));
+        int swarm = targetSwarm==null ? -1 : sim.swarms.indexOf(targetSwarm);
+        if (swarm>=0) {
+            out.put(SWARM);
+            out.putInt(swarm);
+        } else if (isBomb()) {
+            out.put(BOMB);
+            out.putInt(-1);
+        } else {
+            out.put(ENEMY);
+            out.putInt(targetSwarm==null ? sim.enemies.indexOf(target) : -1);
+        }
+        out.putInt(targetMember);
+        out.putDouble(aliveFor);
+        out.putDouble(body.getX());
+        out.putDouble(body.getY());
+        out.putDouble(body.getRotation());
+    }
+
+    /**
+     * updates a Projectile's position and rotation
+     * also checks for target collision and if a bomb has timed out
+     *
+     * @param frameTime amount of real time that one frame is shown for
+     * @param targetEnemy the Enemy being fired at, null for bombs
+     * @return whether the Projectile has reached it target
+     */
+    public boolean updateAndCheckTarget (double frameTime, Enemy targetEnemy) {
+        return updateAndCheckTarget(frameTime, targetEnemy==null ? null : targetEnemy.body);
+    }
 
     /**
-     * updates a Projectile's position and rotation and draws it
+     * updates a Projectile's position and rotation towards a Body
      * also checks for target collision and if a bomb has timed out
      *
      * @param frameTime amount of real time that one frame is shown for
+     * @param target the Body of the target being fired at, null for bombs
      * @return whether the Projectile has reached it target
      */
-    public boolean updateAndCheckTarget (double frameTime) {
+    public boolean updateAndCheckTarget (double frameTime, Body target) {
         aliveFor += frameTime;
         double distMoved = PROJECTILE_SPEED*frameTime;
-        if (target != null) {
-            sprite.setPosition(PathingManager.newPosition(sprite.getPosition(), target.sprite.getPosition(), distMoved));
-            sprite.setRotation(PathingManager.newRotation(sprite.getPosition(), target.sprite.getPosition()));
-        }
-        sprite.draw();
-        return (target != null)? PathingManager.collisionCheck(sprite, target.sprite) : aliveFor>BOMB_EXPLODE_DELAY;
+        if (target == null) return aliveFor>BOMB_EXPLODE_DELAY;
+        // the whole path moved along is checked, so a fast projectile cannot pass through its target
+        double fromX = body.getX();
+        double fromY = body.getY();
+        PathingManager.moveTowards(body, target.getX(), target.getY(), distMoved);
+        body.setRotation(PathingManager.newRotation(body.getX(), body.getY(), target.getX(), target.getY()));
+        return PathingManager.sweptCollisionCheck(body, fromX, fromY, target);
+    }
+
+    /**
+     * submits a draw of the Projectile at its current position and rotation
+     *
+     * @param buffer the buffer to submit to
+     */
+    public void submit (RenderBuffer buffer) {
+        buffer.submit(RenderBuffer.LAYER_PROJECTILES, spritePath, body.getX(), body.getY(), body.getRotation());
     }
-}
\ No newline at end of file
+}
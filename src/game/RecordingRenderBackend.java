@@ -0,0 +1,45 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import bagel.util.Colour;
+
+/* records flushed commands instead of drawing them, so draw counts and ordering
+   can be inspected without a window or graphics context; see Checks under bench/ */
+public class RecordingRenderBackend implements RenderBackend {
+    private final List<String> commands = new ArrayList<String>();
+    private final List<Double> xs = new ArrayList<Double>(); // NaN for custom draws
+    private int textureDraws = 0;
+    private int customDraws = 0;
+
+    // getters
+    public List<String> getCommands() {return commands;}
+    public List<Double> getXs() {return xs;}
+    public int getTextureDraws() {return textureDraws;}
+    public int getCustomDraws() {return customDraws;}
+
+    // recorded texture draws are named by their texture's file path
+    @Override
+    public void drawTexture(String filename, double x, double y, double rotation, Colour blend, boolean topLeftPos) {
+        commands.add(filename);
+        xs.add(x);
+        textureDraws++;
+    }
+
+    // recorded custom draws are named by their label, and are not run
+    @Override
+    public void drawCustom(String label, Runnable draw) {
+        commands.add(label);
+        xs.add(Double.NaN);
+        customDraws++;
+    }
+
+    // forgets all recorded commands
+    public void clear() {
+        commands.clear();
+        xs.clear();
+        textureDraws = 0;
+        customDraws = 0;
+    }
+}
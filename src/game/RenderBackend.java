@@ -0,0 +1,26 @@
+package game;
+
+import bagel.util.Colour;
+
+/* receives the draw commands of a RenderBuffer as it is flushed, in sorted order */
+public interface RenderBackend {
+    /**
+     * draws a texture
+     *
+     * @param filename path to the texture's image, relative to project root directory
+     * @param x the x coordinate to draw at
+     * @param y the y coordinate to draw at
+     * @param rotation the rotation to draw with, in radians
+     * @param blend the blend colour to draw with, null if unblended
+     * @param topLeftPos whether the coordinates are of the top-left corner rather than the centre
+     */
+    void drawTexture(String filename, double x, double y, double rotation, Colour blend, boolean topLeftPos);
+
+    /**
+     * performs a draw that is not a single texture, such as the map or text
+     *
+     * @param label a name describing the draw
+     * @param draw the draw calls to be made
+     */
+    void drawCustom(String label, Runnable draw);
+}
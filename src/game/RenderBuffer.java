@@ -0,0 +1,155 @@
+package game;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import bagel.util.Colour;
+
+/* collects the draw commands of one frame, to be flushed once at the end of it
+   commands are sorted by layer, then by texture so draws of the same texture are batched,
+   then by submission order. storage is reused between frames, so submitting does not allocate */
+public class RenderBuffer {
+    // layers, drawn from bottom to top
+    public static final int LAYER_MAP = 0;
+    public static final int LAYER_ENEMIES = 1;
+    public static final int LAYER_TOWERS = 2;
+    public static final int LAYER_PROJECTILES = 3;
+    public static final int LAYER_UI = 4;
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int CUSTOM_TEXTURE = 0; // custom draws sort before textures in their layer
+
+    // texture ids in order of first submission
+    private final Map<String,Integer> textureIds = new HashMap<String,Integer>();
+    private String[] textureNames = new String[INITIAL_CAPACITY];
+
+    // command storage, one entry per command
+    private int count = 0;
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int[] textures = new int[INITIAL_CAPACITY];
+    private double[] xs = new double[INITIAL_CAPACITY];
+    private double[] ys = new double[INITIAL_CAPACITY];
+    private double[] rotations = new double[INITIAL_CAPACITY];
+    private Colour[] blends = new Colour[INITIAL_CAPACITY];
+    private boolean[] topLeftPositions = new boolean[INITIAL_CAPACITY];
+    private String[] labels = new String[INITIAL_CAPACITY];
+    private Runnable[] customDraws = new Runnable[INITIAL_CAPACITY];
+
+    // number of commands submitted since the last flush
+    public int size() {return count;}
+
+    /**
+     * submits a texture draw, centred at a position
+     *
+     * @param layer the layer to draw in
+     * @param filename path to the texture's image
+     * @param x the x coordinate of the centre
+     * @param y the y coordinate of the centre
+     * @param rotation the rotation to draw with, in radians
+     */
+    public void submit (int layer, String filename, double x, double y, double rotation) {
+        submit(layer, filename, x, y, rotation, null, false);
+    }
+
+    /**
+     * submits a texture draw with the current state of a Sprite
+     *
+     * @param layer the layer to draw in
+     * @param sprite the Sprite to draw
+     */
+    public void submit (int layer, Sprite sprite) {
+        submit(layer, sprite.getFilename(), sprite.getX(), sprite.getY(), sprite.getRotation(),
+            sprite.getUseBlend() ? sprite.getBlend() : null, sprite.getTopLeftPos());
+    }
+
+    /**
+     * submits a texture draw
+     *
+     * @param layer the layer to draw in
+     * @param filename path to the texture's image
+     * @param x the x coordinate to draw at
+     * @param y the y coordinate to draw at
+     * @param rotation the rotation to draw with, in radians
+     * @param blend the blend colour to draw with, null if unblended
+     * @param topLeftPos whether the coordinates are of the top-left corner rather than the centre
+     */
+    public void submit (int layer, String filename, double x, double y, double rotation, Colour blend, boolean topLeftPos) {
+        int i = nextCommand(layer, textureId(filename));
+        xs[i] = x;
+        ys[i] = y;
+        rotations[i] = rotation;
+        blends[i] = blend;
+        topLeftPositions[i] = topLeftPos;
+    }
+
+    /**
+     * submits a draw that is not a single texture, such as the map or text
+     * custom draws are made before any texture draws in the same layer
+     *
+     * @param layer the layer to draw in
+     * @param label a name describing the draw
+     * @param draw the draw calls to be made; reuse the same instance every frame to avoid allocating
+     */
+    public void submitCustom (int layer, String label, Runnable draw) {
+        int i = nextCommand(layer, CUSTOM_TEXTURE);
+        labels[i] = label;
+        customDraws[i] = draw;
+    }
+
+    /**
+     * sorts all submitted commands and sends them to a backend, then clears the buffer
+     *
+     * @param backend the backend to draw with
+     */
+    public void flush (RenderBackend backend) {
+        Arrays.sort(keys, 0, count);
+        for (int k=0; k<count; k++) {
+            int i = (int)keys[k];
+            if (textures[i]==CUSTOM_TEXTURE) backend.drawCustom(labels[i], customDraws[i]);
+            else backend.drawTexture(textureNames[textures[i]], xs[i], ys[i], rotations[i], blends[i], topLeftPositions[i]);
+        }
+        clear();
+    }
+
+    // drops all submitted commands without drawing them
+    public void clear() {
+        Arrays.fill(blends, 0, count, null);
+        Arrays.fill(labels, 0, count, null);
+        Arrays.fill(customDraws, 0, count, null);
+        count = 0;
+    }
+
+    // sort key: layer, then texture id, then submission order, which is also the command index
+    private int nextCommand (int layer, int texture) {
+        if (count==keys.length) grow();
+        int i = count++;
+        keys[i] = ((long)layer<<56) | ((long)texture<<32) | i;
+        textures[i] = texture;
+        return i;
+    }
+
+    private int textureId (String filename) {
+        Integer id = textureIds.get(filename);
+        if (id == null) {
+            id = textureIds.size()+1;
+            textureIds.put(filename, id);
+            if (id==textureNames.length) textureNames = Arrays.copyOf(textureNames, id*2);
+            textureNames[id] = filename;
+        }
+        return id;
+    }
+
+    private void grow() {
+        int n = keys.length*2;
+        keys = Arrays.copyOf(keys, n);
+        textures = Arrays.copyOf(textures, n);
+        xs = Arrays.copyOf(xs, n);
+        ys = Arrays.copyOf(ys, n);
+        rotations = Arrays.copyOf(rotations, n);
+        blends = Arrays.copyOf(blends, n);
+        topLeftPositions = Arrays.copyOf(topLeftPositions, n);
+        labels = Arrays.copyOf(labels, n);
+        customDraws = Arrays.copyOf(customDraws, n);
+    }
+}
@@ -0,0 +1,315 @@
+package game;
+
+import java.nio.ByteBuffer;
+import java.util.NavigableMap;
+
+import cfg.LevelData;
+
+/* a fixed-memory history of recent simulation states, for stepping back through play
+   every state is encoded as a save; a full save is kept as a keyframe every few frames, and the frames between
+   only keep the bytes that changed since the frame before, part by part. enemies are saved by their distance along
+   the lane and registry order is stable, so most bytes of consecutive saves line up and only moving values differ.
+   frames are written one after another into a single array used as a ring: once it is full, the oldest keyframe
+   and the frames that depend on it are dropped to make room. any frame kept can be restored exactly */
+public class RewindBuffer {
+    public static final int DEFAULT_CAPACITY = 64 << 20;     // bytes
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 75;  // frames
+    private static final int MIN_GAP = 3; // unchanged runs shorter than a run header are stored as changed
+    private static final int INITIAL_FRAMES = 256;
+
+    private final byte[] arena;
+    private final int keyframeInterval;
+    // ring of frames, oldest first: where each is in the arena, and whether it is a keyframe
+    private int[] starts = new int[INITIAL_FRAMES];
+    private int[] lengths = new int[INITIAL_FRAMES];
+    private boolean[] keyframes = new boolean[INITIAL_FRAMES];
+    private int first = 0;
+    private int count = 0;
+    private int writeAt = 0;
+    private int sinceKeyframe = 0;
+
+    // the last frame recorded, which the next delta is taken against, and the buffers kept between frames
+    private ByteBuffer previous = null;
+    private ByteBuffer current = null;
+    private int[] previousEnds = new int[Snapshot.SECTIONS];
+    private int[] currentEnds = new int[Snapshot.SECTIONS];
+    private byte[] scratch = new byte[1024];
+    private byte[] decoded = new byte[0];
+    private byte[] decoding = new byte[0];
+    private int[] decodedEnds = new int[Snapshot.SECTIONS];
+    private int[] decodingEnds = new int[Snapshot.SECTIONS];
+
+    /**
+     * creates an empty buffer
+     *
+     * @param capacity the number of bytes frames may take, allocated up front
+     * @param nkeyframeInterval the number of frames from one keyframe to the next
+     */
+    public RewindBuffer (int capacity, int nkeyframeInterval) {
+        if (capacity<=0 | nkeyframeInterval<=0) throw new IllegalArgumentException("capacity and keyframe interval must be positive");
+        arena = new byte[capacity];
+        keyframeInterval = nkeyframeInterval;
+    }
+
+    // getters
+    public int countFrames() {return count;}
+    public int getCapacity() {return arena.length;}
+
+    /**
+     * records a simulation's current state as the newest frame; to be called between ticks
+     * a frame too large for the whole buffer is not kept, and the history is cleared
+     *
+     * @param sim the simulation in question
+     */
+    public void record (SimulationEngine sim) {
+        current = Snapshot.encode(sim, current, currentEnds);
+        boolean isKeyframe = previous==null || sinceKeyframe+1>=keyframeInterval;
+        int length = isKeyframe ? encodeKeyframe() : encodeDelta();
+        if (!store(length, isKeyframe)) {
+            clear();
+            return;
+        }
+        sinceKeyframe = isKeyframe ? 0 : sinceKeyframe+1;
+        ByteBuffer swap = previous;
+        previous = current;
+        current = swap;
+        int[] swapEnds = previousEnds;
+        previousEnds = currentEnds;
+        currentEnds = swapEnds;
+    }
+
+    /**
+     * restores the simulation as it was at a frame
+     *
+     * @param levels the level pack the recorded simulation was playing
+     * @param frame the frame, from 0 for the oldest to countFrames()-1 for the newest
+     * @return the restored simulation
+     */
+    public SimulationEngine restore (NavigableMap<Integer,LevelData> levels, int frame) {
+        decode(frame);
+        return Snapshot.load(levels, decoded, decodedEnds[Snapshot.SECTIONS-1]);
+    }
+
+    /**
+     * drops every frame after a given one, so that play resumed from that frame is recorded after it
+     *
+     * @param frame the frame to be kept as the newest
+     */
+    public void truncateAfter (int frame) {
+        if (frame<0 | frame>=count) throw new IndexOutOfBoundsException("no frame "+frame);
+        decode(frame);
+        int keyframe = frame;
+        while (!keyframes[ring(keyframe)]) keyframe--;
+        sinceKeyframe = frame-keyframe;
+        count = frame+1;
+        writeAt = starts[ring(frame)]+lengths[ring(frame)];
+        // the restored frame is the one the next delta is taken against
+        int length = decodedEnds[Snapshot.SECTIONS-1];
+        if (previous==null || previous.capacity()<length) previous = ByteBuffer.allocate(length);
+        previous.clear();
+        previous.put(decoded, 0, length);
+        System.arraycopy(decodedEnds, 0, previousEnds, 0, Snapshot.SECTIONS);
+    }
+
+    // drops every frame
+    public void clear() {
+        count = 0;
+        first = 0;
+        writeAt = 0;
+        sinceKeyframe = 0;
+        previous = null;
+    }
+
+    // keyframe: the part lengths, then the whole save
+    private int encodeKeyframe() {
+        int length = currentEnds[Snapshot.SECTIONS-1];
+        ensureScratch(5*Snapshot.SECTIONS+length);
+        int at = 0;
+        for (int s=0; s<Snapshot.SECTIONS; s++) at = putVarint(scratch, at, sectionLength(currentEnds, s));
+        System.arraycopy(current.array(), 0, scratch, at, length);
+        return at+length;
+    }
+
+    // delta: the part lengths, then for each part the runs of bytes that differ from the same part of the previous frame,
+    // each as a skip and a length, ended by a run of length 0, then any bytes past the end of the previous part
+    private int encodeDelta() {
+        byte[] from = previous.array();
+        byte[] to = current.array();
+        // at worst, runs of one changed byte are each followed by MIN_GAP unchanged ones, with two varints per run
+        ensureScratch(5*Snapshot.SECTIONS*3+currentEnds[Snapshot.SECTIONS-1]*3);
+        int at = 0;
+        for (int s=0; s<Snapshot.SECTIONS; s++) at = putVarint(scratch, at, sectionLength(currentEnds, s));
+        for (int s=0; s<Snapshot.SECTIONS; s++) {
+            int fromStart = s==0 ? 0 : previousEnds[s-1];
+            int toStart = s==0 ? 0 : currentEnds[s-1];
+            int common = Math.min(sectionLength(previousEnds, s), sectionLength(currentEnds, s));
+            int i = 0;
+            int lastEnd = 0;
+            while (i<common) {
+                // unchanged stretches are skipped a word at a time
+                while (i+Long.BYTES<=common && previous.getLong(fromStart+i)==current.getLong(toStart+i)) i += Long.BYTES;
+                if (i==common) break;
+                if (from[fromStart+i]==to[toStart+i]) {i++; continue;}
+                // a run ends once MIN_GAP bytes in a row are unchanged
+                int end = i+1;
+                int same = 0;
+                while (end<common && same<MIN_GAP) {
+                    if (from[fromStart+end]==to[toStart+end]) same++;
+                    else same = 0;
+                    end++;
+                }
+                end -= same;
+                at = putVarint(scratch, at, i-lastEnd);
+                at = putVarint(scratch, at, end-i);
+                for (int k=toStart+i; k<toStart+end; k++) scratch[at++] = to[k];
+                lastEnd = end;
+                i = end;
+            }
+            at = putVarint(scratch, at, 0);
+            at = putVarint(scratch, at, 0);
+            int tail = sectionLength(currentEnds, s)-common;
+            System.arraycopy(to, toStart+common, scratch, at, tail);
+            at += tail;
+        }
+        return at;
+    }
+
+    // copies the encoded frame into the arena, dropping the oldest frames it would overwrite
+    private boolean store (int length, boolean isKeyframe) {
+        if (length>arena.length) return false;
+        if (writeAt+length>arena.length) {
+            // the end of the array is left unused; frames still there are the oldest, so they go first
+            while (count>0 && overlaps(starts[first], lengths[first], writeAt, arena.length-writeAt)) dropOldestKeyframe();
+            writeAt = 0;
+        }
+        while (count>0 && overlaps(starts[first], lengths[first], writeAt, length)) dropOldestKeyframe();
+        if (count==0 && !isKeyframe) return false;
+        if (count==starts.length) grow();
+        int slot = ring(count);
+        starts[slot] = writeAt;
+        lengths[slot] = length;
+        keyframes[slot] = isKeyframe;
+        System.arraycopy(scratch, 0, arena, writeAt, length);
+        writeAt += length;
+        count++;
+        return true;
+    }
+
+    // drops the oldest keyframe and the deltas after it, which cannot be decoded without it
+    private void dropOldestKeyframe() {
+        do {
+            first = ring(1);
+            count--;
+        } while (count>0 && !keyframes[first]);
+    }
+
+    // rebuilds a frame into decoded, from the keyframe at or before it
+    private void decode (int frame) {
+        if (frame<0 | frame>=count) throw new IndexOutOfBoundsException("no frame "+frame);
+        int keyframe = frame;
+        while (!keyframes[ring(keyframe)]) keyframe--;
+        int slot = ring(keyframe);
+        int at = starts[slot];
+        int end = 0;
+        for (int s=0; s<Snapshot.SECTIONS; s++) {
+            end += getVarint(arena, at);
+            decodedEnds[s] = end;
+            at = nextVarint(arena, at);
+        }
+        int length = decodedEnds[Snapshot.SECTIONS-1];
+        if (decoded.length<length) decoded = new byte[length];
+        System.arraycopy(arena, at, decoded, 0, length);
+        for (int f=keyframe+1; f<=frame; f++) applyDelta(starts[ring(f)]);
+    }
+
+    // applies the delta at an arena position to decoded
+    private void applyDelta (int at) {
+        int end = 0;
+        for (int s=0; s<Snapshot.SECTIONS; s++) {
+            end += getVarint(arena, at);
+            decodingEnds[s] = end;
+            at = nextVarint(arena, at);
+        }
+        if (decoding.length<end) decoding = new byte[end];
+        for (int s=0; s<Snapshot.SECTIONS; s++) {
+            int fromStart = s==0 ? 0 : decodedEnds[s-1];
+            int toStart = s==0 ? 0 : decodingEnds[s-1];
+            int toLength = sectionLength(decodingEnds, s);
+            int common = Math.min(sectionLength(decodedEnds, s), toLength);
+            System.arraycopy(decoded, fromStart, decoding, toStart, common);
+            int i = 0;
+            while (true) {
+                int skip = getVarint(arena, at);
+                at = nextVarint(arena, at);
+                int run = getVarint(arena, at);
+                at = nextVarint(arena, at);
+                if (run==0) break;
+                i += skip;
+                System.arraycopy(arena, at, decoding, toStart+i, run);
+                at += run;
+                i += run;
+            }
+            System.arraycopy(arena, at, decoding, toStart+common, toLength-common);
+            at += toLength-common;
+        }
+        byte[] swap = decoded;
+        decoded = decoding;
+        decoding = swap;
+        int[] swapEnds = decodedEnds;
+        decodedEnds = decodingEnds;
+        decodingEnds = swapEnds;
+    }
+
+    private void grow() {
+        int n = starts.length*2;
+        int[] nstarts = new int[n];
+        int[] nlengths = new int[n];
+        boolean[] nkeyframes = new boolean[n];
+        for (int i=0; i<count; i++) {
+            nstarts[i] = starts[ring(i)];
+            nlengths[i] = lengths[ring(i)];
+            nkeyframes[i] = keyframes[ring(i)];
+        }
+        starts = nstarts;
+        lengths = nlengths;
+        keyframes = nkeyframes;
+        first = 0;
+    }
+
+    private void ensureScratch (int length) {
+        if (scratch.length<length) scratch = new byte[Math.max(length, scratch.length*2)];
+    }
+
+    // the ring slot of the nth oldest frame
+    private int ring (int n) {return (first+n)%starts.length;}
+
+    private static boolean overlaps (int startA, int lengthA, int startB, int lengthB) {
+        return startA<startB+lengthB && startB<startA+lengthA;
+    }
+
+    private static int sectionLength (int[] ends, int s) {return ends[s]-(s==0 ? 0 : ends[s-1]);}
+
+    // unsigned varints, 7 bits a byte, low bits first
+    private static int putVarint (byte[] to, int at, int value) {
+        while ((value & ~0x7F)!=0) {
+            to[at++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        to[at++] = (byte)value;
+        return at;
+    }
+
+    private static int getVarint (byte[] from, int at) {
+        int result = 0;
+        for (int shift=0; ; shift+=7) {
+            byte b = from[at++];
+            result |= (b & 0x7F)<<shift;
+            if (b>=0) return result;
+        }
+    }
+
+    private static int nextVarint (byte[] from, int at) {
+        while (from[at]<0) at++;
+        return at+1;
+    }
+}
@@ -0,0 +1,52 @@
+package game;
+
+/* a splittable SplitMix64 generator, producing the same sequences as java.util.SplittableRandom
+   its whole state is two longs that can be read back, so it can be saved and restored exactly */
+public class SeededRandom {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    private long seed;
+    private final long gamma; // always odd
+
+    // constructors
+    public SeededRandom (long nseed) {this(nseed, GOLDEN_GAMMA);}
+    SeededRandom (long nseed, long ngamma) {
+        seed = nseed;
+        gamma = ngamma;
+    }
+
+    // state, for saving
+    long getSeed() {return seed;}
+    long getGamma() {return gamma;}
+
+    /**
+     * splits off a new generator, advancing this one
+     *
+     * @return a generator whose sequence is independent of this one's
+     */
+    public SeededRandom split() {return new SeededRandom(nextLong(), mixGamma(nextSeed()));}
+
+    // a uniformly distributed long
+    public long nextLong() {return mix64(nextSeed());}
+
+    // a uniformly distributed double from 0 inclusive to 1 exclusive
+    public double nextDouble() {return (nextLong()>>>11)*DOUBLE_UNIT;}
+
+    private long nextSeed() {return seed += gamma;}
+
+    private static long mix64 (long z) {
+        z = (z^(z>>>30))*0xbf58476d1ce4e5b9L;
+        z = (z^(z>>>27))*0x94d049bb133111ebL;
+        return z^(z>>>31);
+    }
+
+    // gammas with too few bit transitions are flipped, as weak gammas give correlated sequences
+    private static long mixGamma (long z) {
+        z = (z^(z>>>33))*0xff51afd7ed558ccdL;
+        z = (z^(z>>>33))*0xc4ceb9fe1a85ec53L;
+        z = (z^(z>>>33))|1L;
+        int n = Long.bitCount(z^(z>>>1));
+        return n<24 ? z^0xaaaaaaaaaaaaaaaaL : z;
+    }
+}
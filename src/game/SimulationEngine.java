@@ -0,0 +1,416 @@
+package game;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+import bagel.util.Rectangle;
+
+import cfg.EventData;
+import cfg.LevelData;
+import cfg.MapData;
+import cfg.TowerData;
+
+/* advances a game through its levels tick by tick
+   holds all simulation state (entities, wave progress, player economy) and no rendering resources,
+   so it can run without a window; rendering clients read its state and draw it separately */
+public class SimulationEngine {
+    // the simulated time advanced in one step by advance and resolveWaves, and the longest step a tick is split into
+    public static final double STEP_TIME = 1.0/75;
+    private static final double STEP_EPSILON = 1e-9;
+
+    // entity registries, shared with the entity classes
+    final EntityRegistry<Enemy> enemies = new EntityRegistry<Enemy>();
+    final EntityRegistry<Tower> towers = new EntityRegistry<Tower>();
+    final EntityRegistry<Projectile> projectiles = new EntityRegistry<Projectile>();
+    final List<Swarm> swarms = new ArrayList<Swarm>();
+    final Explosions explosions = new Explosions();
+    SpatialGrid enemyGrid;
+    final ProgressIndex progressIndex = new ProgressIndex();
+    boolean planeWillBeHorizontal = true;
+
+    // state storage
+    private final long seed;
+    private SeededRandom random;
+    private final NavigableMap<Integer,LevelData> levels;
+    private final Player player = new Player();
+    private int levelNum;
+    private LevelData level;
+    private String mapPath;
+    private MapData map;
+    private Lane lane;
+    private NavigableMap<Integer,List<EventData>> waves;
+    private Wave currentWave = new Wave();
+    private int currentWaveKey = Integer.MIN_VALUE; // key of the last wave started in this level
+    private int waveNum = 0;
+    private boolean waveRewardGiven = false;
+    private double playAreaTop = 0.0;
+    private List<Rectangle> panelBounds = new ArrayList<Rectangle>();
+    private FrameProfiler profiler = null; // only set when a frame is being profiled
+    private double pendingTime = 0.0;      // simulated time requested through advance() but not yet stepped
+    private Tower.AttackBuffer[] attackBuffers = new Tower.AttackBuffer[0];
+    private byte[] enemyOutcomes = new byte[0];
+    private int enemyParallelThreshold = Enemy.DEFAULT_PARALLEL_THRESHOLD;
+    private int towerParallelThreshold = Tower.DEFAULT_PARALLEL_THRESHOLD;
+    private PlacementGrid placementGrid = null; // built when first needed after the level, panels or towers change wholesale
+    private String checkpointDirectory = null; // where a save is written as each wave starts, if anywhere
+
+    /**
+     * creates a simulation starting at the first of the given levels, with a random seed
+     *
+     * @param nlevels the levels to be played, in order; the Map itself is not modified
+     */
+    public SimulationEngine (NavigableMap<Integer,LevelData> nlevels) {
+        this(nlevels, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * creates a simulation starting at the first of the given levels
+     * simulations with the same seed, levels and inputs produce identical outcomes
+     *
+     * @param nlevels the levels to be played, in order; the Map itself is not modified
+     * @param nseed the seed for all random behaviour in the simulation
+     */
+    public SimulationEngine (NavigableMap<Integer,LevelData> nlevels, long nseed) {
+        this(nlevels, nseed, nlevels.firstKey());
+    }
+
+    /**
+     * creates a simulation starting partway through the given levels, for a save to be restored into
+     *
+     * @param nlevels the levels to be played, in order; the Map itself is not modified
+     * @param nseed the seed the saved simulation was created with
+     * @param startLevel the number of the level to start at
+     * @throws IllegalArgumentException if there is no such level
+     */
+    SimulationEngine (NavigableMap<Integer,LevelData> nlevels, long nseed, int startLevel) {
+        if (!nlevels.containsKey(startLevel)) throw new IllegalArgumentException("no level "+startLevel);
+        seed = nseed;
+        random = new SeededRandom(seed);
+        levels = new TreeMap<Integer,LevelData>(nlevels.tailMap(startLevel, true));
+        loadNextLevel();
+    }
+
+    // getters
+    public long getSeed() {return seed;}
+    public Player getPlayer() {return player;}
+    public int getLevelNum() {return levelNum;}
+    public String getMapPath() {return mapPath;}
+    public String getNextMapPath() {return levels.isEmpty() ? null : levels.firstEntry().getValue().mapPath;}
+    public boolean isNextLevelPreloaded() {return !levels.isEmpty() && levels.firstEntry().getValue().isPreloaded();}
+    public Lane getLane() {return lane;}
+    public double getWidth() {return map.width;}
+    public double getHeight() {return map.height;}
+    public double getPlayAreaTop() {return playAreaTop;}
+    public int getWaveNum() {return waveNum;}
+    public int getEnemyParallelThreshold() {return enemyParallelThreshold;}
+    public int getTowerParallelThreshold() {return towerParallelThreshold;}
+    public int countEnemies() {return enemies.size()+Swarm.countAll(this);}
+    public int countTowers() {return towers.size();}
+    public int countProjectiles() {return projectiles.size();}
+    public boolean isWaveComplete() {return currentWave.isComplete() & enemies.isEmpty() & swarms.isEmpty();}
+    public boolean hasWavesLeft() {return !waves.isEmpty();}
+    int countWaveStreams() {return currentWave.countStreams();}
+
+    /**
+     * splits off an independent generator for a newly created entity
+     * splits happen in creation order, so each entity's randomness only depends on the seed
+     *
+     * @return a generator owned by the caller
+     */
+    SeededRandom splitRandom() {return random.split();}
+
+    /**
+     * returns the buffers the tower targeting phase writes attacks into, one per chunk of towers
+     * buffers are kept between ticks, so the phase does not allocate them
+     *
+     * @param count the number of chunks
+     * @return the buffers, at least as many as requested; only the first count are used
+     */
+    Tower.AttackBuffer[] attackBuffers (int count) {
+        if (attackBuffers.length<count) {
+            int old = attackBuffers.length;
+            attackBuffers = Arrays.copyOf(attackBuffers, count);
+            for (int i=old; i<count; i++) attackBuffers[i] = new Tower.AttackBuffer();
+        }
+        return attackBuffers;
+    }
+
+    /**
+     * returns the array the enemy movement phase records each Enemy's outcome in, kept between ticks
+     *
+     * @param count the number of enemies
+     * @return an array of at least that length
+     */
+    byte[] enemyOutcomes (int count) {
+        if (enemyOutcomes.length<count) enemyOutcomes = new byte[Math.max(count, enemyOutcomes.length*2)];
+        return enemyOutcomes;
+    }
+
+    /**
+     * returns the grid towers are placed on, building it around the current ground towers if it is out of date
+     * it is only built once needed, so starting a level or restoring a save does not pay for it up front
+     *
+     * @return the placement grid
+     */
+    PlacementGrid placementGrid() {
+        if (placementGrid==null) {
+            placementGrid = new PlacementGrid(map.width, map.height, panelBounds, lane.getPoints());
+            List<Rectangle> placed = new ArrayList<Rectangle>();
+            for (int i=0; i<towers.size(); i++) {
+                Tower t = towers.at(i);
+                if (!t.getData().isAirSupport) placed.add(t.body.getBoundingBoxAtPosition());
+            }
+            placementGrid.stampAll(placed);
+        }
+        return placementGrid;
+    }
+
+    /**
+     * replaces the waves not yet started in this level with those now held by its LevelData,
+     * if the level's waves come from a given file; the wave in progress is unaffected
+     *
+     * @param wavesPath the waves file that was reloaded
+     */
+    public void reloadWaves (String wavesPath) {
+        if (!level.wavesPath.equals(wavesPath)) return;
+        waves = new TreeMap<Integer,List<EventData>>(level.getWaves().tailMap(currentWaveKey, false));
+    }
+
+    /**
+     * sets a directory that a save is written to as each wave starts, named after the level and wave,
+     * so long automated runs can be resumed or inspected from any wave
+     *
+     * @param setTo the directory, which is created if needed, or null for no checkpoints
+     */
+    public void setCheckpointDirectory (String setTo) {checkpointDirectory = setTo;}
+
+    // sets how many enemies there must be for their movement to run in parallel; results are the same either way
+    public void setEnemyParallelThreshold (int setTo) {enemyParallelThreshold = setTo;}
+
+    // sets how many towers there must be for their targets to be chosen in parallel; results are the same either way
+    public void setTowerParallelThreshold (int setTo) {towerParallelThreshold = setTo;}
+
+    // sets the profiler that times each phase of a tick, or null for none
+    public void setProfiler (FrameProfiler setTo) {profiler = setTo;}
+
+    // sets the topmost coordinate of the play area, where vertical airplanes enter from
+    public void setPlayAreaTop (double setTo) {playAreaTop = setTo;}
+
+    /**
+     * sets the UI panels that no tower can be placed on, rebuilding the placement grid
+     *
+     * @param setTo bounding boxes of the panels
+     */
+    public void setPanelBounds (List<Rectangle> setTo) {
+        panelBounds = new ArrayList<Rectangle>(setTo);
+        rebuildPlacementGrid();
+    }
+
+    /**
+     * advances the simulation by one tick, split into equal steps of at most STEP_TIME
+     * the steps are only exactly STEP_TIME if the tick is a multiple of it, so only then does the outcome match that of
+     * advance; other tick lengths step by other amounts. advance carries time over instead, so its outcome does not
+     * depend on how time is requested
+     *
+     * @param frameTime amount of simulated time that passes in this tick
+     */
+    public void tick (double frameTime) {
+        int steps = Math.max(1, (int)Math.ceil(frameTime/STEP_TIME - STEP_EPSILON));
+        for (int i=0; i<steps; i++) step(frameTime/steps);
+    }
+
+    /**
+     * fast-forwards through waves as fast as possible, drawing nothing:
+     * starts the next wave if none is in progress, then steps until it and any further requested waves are complete,
+     * starting each as soon as the previous one is, as pressing S at once would; stops early if the player
+     * wins or loses, or the level ends. steps are the same as in real-time play, so the outcome is too
+     *
+     * @param count the number of waves to resolve, including any in progress
+     * @return the number of waves completed
+     */
+    public int resolveWaves (int count) {
+        int startLevelNum = levelNum;
+        int resolved = 0;
+        while (resolved<count && !player.isSuspended() && levelNum==startLevelNum) {
+            if (isWaveComplete() && !startNextWave()) break;
+            do {step(STEP_TIME);} while (!isWaveComplete() && !player.isSuspended());
+            if (isWaveComplete()) resolved++;
+        }
+        return resolved;
+    }
+
+    /**
+     * advances the simulation in steps of exactly STEP_TIME, for as long as a CPU budget allows
+     * time not stepped is carried over to the next call, up to one call's worth, beyond which it is dropped;
+     * under load the simulation runs slower than requested, but its outcome does not change
+     *
+     * @param time amount of simulated time requested to pass
+     * @param budgetNanos wall-clock time after which no further steps are started; at least one is always run
+     * @return the number of steps run
+     */
+    public int advance (double time, long budgetNanos) {
+        long deadline = System.nanoTime()+budgetNanos;
+        pendingTime += time;
+        int steps = 0;
+        while (pendingTime>=STEP_TIME-STEP_EPSILON) {
+            step(STEP_TIME);
+            pendingTime -= STEP_TIME;
+            steps++;
+            if (System.nanoTime()>deadline) break;
+        }
+        pendingTime = Math.min(pendingTime, time);
+        return steps;
+    }
+
+    /**
+     * advances the simulation by one step:
+     * wave spawning, tower attacks, enemy movement, then level progress and wave rewards
+     *
+     * @param frameTime amount of simulated time that passes in this step
+     */
+    private void step (double frameTime) {
+        // update spawn and wave progress
+        if (profiler!=null) profiler.begin(FrameProfiler.PHASE_WAVES);
+        currentWave.updateAll(this, frameTime);
+        if (profiler!=null) profiler.end(FrameProfiler.PHASE_WAVES);
+        // update towers and attacks
+        if (profiler!=null) profiler.begin(FrameProfiler.PHASE_TOWERS);
+        if (!player.isSuspended()) Tower.updateAll(this, frameTime);
+        if (profiler!=null) profiler.end(FrameProfiler.PHASE_TOWERS);
+        // update enemy movement, death and penalties
+        if (profiler!=null) profiler.begin(FrameProfiler.PHASE_ENEMIES);
+        Enemy.updateAll(this, frameTime);
+        Swarm.updateAll(this, frameTime);
+        if (profiler!=null) profiler.end(FrameProfiler.PHASE_ENEMIES);
+
+        // level progress, wave reward, win condition
+        if (isWaveComplete()) {
+            // level completion/winning
+            if (waves.isEmpty()) {
+                if (levels.isEmpty()) player.win(); // YOU WIN
+                else {
+                    towers.clear();
+                    projectiles.clear();
+                    player.resetState();
+                    waveNum = 0;
+                    loadNextLevel();
+                }
+            // wave completion reward
+            } else if (!waveRewardGiven) {
+                player.reward(Wave.waveCompleteReward(waveNum));
+                waveNum++;
+                waveRewardGiven = true;
+            }
+        }
+    }
+
+    /**
+     * starts the next wave, if the current wave is complete and no enemies are left
+     *
+     * @return whether a new wave was started
+     */
+    public boolean startNextWave() {
+        if (player.isSuspended()) return false;
+        if (isWaveComplete() & !waves.isEmpty()) {
+            Map.Entry<Integer,List<EventData>> w = waves.pollFirstEntry();
+            currentWave = new Wave(w.getValue());
+            currentWaveKey = w.getKey();
+            waveRewardGiven = false;
+            if (checkpointDirectory!=null) writeCheckpoint();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * submits draws of all towers, projectiles and enemies at their current state
+     *
+     * @param buffer the buffer to submit to
+     */
+    public void renderEntities (RenderBuffer buffer) {
+        Enemy.renderAll(this, buffer);
+        Swarm.renderAll(this, buffer);
+        Tower.renderAll(this, buffer);
+    }
+
+    // a checkpoint that cannot be written is reported, without stopping the run
+    private void writeCheckpoint() {
+        File dir = new File(checkpointDirectory);
+        dir.mkdirs();
+        try {
+            Snapshot.saveToFile(this, new File(dir, "level"+levelNum+"-wave"+currentWaveKey+".sav").getPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * writes the engine's own progress and the wave in progress for a save
+     *
+     * @param out the buffer to write to
+     * @param types the type names of the save
+     */
+    void writeState (ByteBuffer out, Snapshot.Types types) {
+        out.putLong(random.getSeed());
+        out.putLong(random.getGamma());
+        out.putDouble(pendingTime);
+        out.putInt(waveNum);
+        out.putInt(currentWaveKey);
+        out.put((byte)((waveRewardGiven ? 1 : 0) | (planeWillBeHorizontal ? 2 : 0)));
+        currentWave.write(out, this, types);
+    }
+
+    /**
+     * restores the engine's own progress and the wave in progress saved by writeState, once every entity is restored
+     * waves up to the one in progress are skipped, and the placement grid is rebuilt around the restored towers
+     *
+     * @param in the buffer to read from
+     * @param types the type names of the save
+     */
+    void readState (ByteBuffer in, Snapshot.Types types) {
+        random = new SeededRandom(in.getLong(), in.getLong());
+        pendingTime = in.getDouble();
+        waveNum = in.getInt();
+        currentWaveKey = in.getInt();
+        byte flags = in.get();
+        waveRewardGiven = (flags&1)!=0;
+        planeWillBeHorizontal = (flags&2)!=0;
+        currentWave = Wave.read(in, this, types);
+        waves = new TreeMap<Integer,List<EventData>>(level.getWaves().tailMap(currentWaveKey, false));
+        rebuildPlacementGrid();
+    }
+
+    // grid cells are as wide as the smallest tower attack radius, so range queries only visit nearby cells
+    private static double gridCellSize() {
+        double result = Double.MAX_VALUE;
+        for (TowerData t : Tower.DATA.values()) {result = Math.min(result, t.attackRadius);}
+        return result;
+    }
+
+    // placement grid is rebuilt around the current towers when next needed
+    private void rebuildPlacementGrid() {placementGrid = null;}
+
+    // loads the next level in the stored levels Map
+    private void loadNextLevel() {
+        Map.Entry<Integer,LevelData> l = levels.pollFirstEntry();
+        levelNum = l.getKey();
+        level = l.getValue();
+        currentWaveKey = Integer.MIN_VALUE;
+        mapPath = l.getValue().mapPath;
+        map = l.getValue().getMap();
+        lane = new Lane(map.getLane());
+        enemyGrid = new SpatialGrid(map.width, map.height, gridCellSize());
+        rebuildPlacementGrid();
+        waves = new TreeMap<Integer,List<EventData>>(l.getValue().getWaves());
+        // read the level after this one while this one is played
+        if (!levels.isEmpty()) levels.firstEntry().getValue().preload();
+    }
+}
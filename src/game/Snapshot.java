@@ -0,0 +1,252 @@
+package game;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import cfg.LevelData;
+
+/* a compact binary save of a whole simulation, taken between ticks
+   entity types are interned into tables at the start, so entities only store small ids;
+   each class writes and reads its own part, in the order below. a restored simulation continues
+   exactly as the saved one would have, given the same level pack and data files.
+   client settings (panel bounds, play area, profiler, parallel thresholds) are not saved
+
+   layout, big-endian; strings are a short byte count followed by UTF-8:
+   header:      magic, version, seed, level number,
+                enemy type count, names, tower type count, names
+   player:      lives, money, leaks, winner, loser
+   swarms:      count, (type, first member id, member count, (distance, health) per member) per swarm
+   enemies:     count, (type, health, distance) per enemy, in registry order
+   progress:    order count, enemy indices, added count, enemy indices
+   towers:      count, (type, x, y, rotation, attack progress, attack interval, horizontal, random seed, random gamma) per tower
+   projectiles: count, (owner type, target kind, target index, member id, alive for, x, y, rotation) per projectile
+   engine:      random seed, random gamma, pending time, wave number, wave key, wave reward given, next plane horizontal,
+                wave elapsed, wave end time, stream count,
+                (type, count, start, interval, order, spawned, swarm index) per stream */
+public class Snapshot {
+    private static final int MAGIC = 0x53445356; // "SDSV"
+    private static final int VERSION = 1;
+    // sizes of each part, for sizing the buffer up front
+    private static final int FIXED_BYTES = 128;       // header, player, counts and engine state, with room to spare
+    private static final int ENEMY_BYTES = 14 + 4;    // including its entry in the progress index
+    private static final int TOWER_BYTES = 59;
+    private static final int PROJECTILE_BYTES = 43;
+    private static final int STREAM_BYTES = 34;
+    private static final int SWARM_BYTES = 10;
+    private static final int MEMBER_BYTES = 12;
+
+    // the parts of a save, in order, as recorded by encode
+    static final int SECTIONS = 8;
+
+    /**
+     * saves a simulation's whole state; to be called between ticks
+     *
+     * @param sim the simulation to be saved
+     * @return the encoded state
+     * @throws IllegalStateException if an entity's type is no longer in the data files
+     */
+    public static byte[] save (SimulationEngine sim) {
+        ByteBuffer out = encode(sim, null, new int[SECTIONS]);
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    /**
+     * encodes a simulation's whole state into a buffer, reusing it if it is large enough
+     * the end of each part is recorded, so consecutive saves can be compared part by part
+     *
+     * @param sim the simulation to be saved
+     * @param reuse a buffer to encode into, or null
+     * @param sectionEnds filled with the position after each of the SECTIONS parts
+     * @return the buffer written to, from 0 up to its position
+     * @throws IllegalStateException if an entity's type is no longer in the data files
+     */
+    static ByteBuffer encode (SimulationEngine sim, ByteBuffer reuse, int[] sectionEnds) {
+        Types types = new Types(Enemy.DATA.keySet().toArray(new String[0]), Tower.DATA.keySet().toArray(new String[0]));
+        // sized up front, so writing never has to grow the buffer
+        long capacity = FIXED_BYTES + types.size() + (long)ENEMY_BYTES*sim.enemies.size() + (long)TOWER_BYTES*sim.towers.size()
+            + (long)PROJECTILE_BYTES*sim.projectiles.size() + (long)STREAM_BYTES*sim.countWaveStreams();
+        for (int s=0; s<sim.swarms.size(); s++) capacity += SWARM_BYTES + (long)MEMBER_BYTES*sim.swarms.get(s).storedMembers();
+        if (capacity>Integer.MAX_VALUE) throw new IllegalStateException("simulation too large to save");
+        ByteBuffer out = reuse!=null && reuse.capacity()>=capacity ? reuse : ByteBuffer.allocate((int)capacity);
+        out.clear();
+
+        int section = 0;
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putLong(sim.getSeed());
+        out.putInt(sim.getLevelNum());
+        types.write(out);
+        sectionEnds[section++] = out.position();
+        sim.getPlayer().write(out);
+        sectionEnds[section++] = out.position();
+        out.putInt(sim.swarms.size());
+        for (int s=0; s<sim.swarms.size(); s++) sim.swarms.get(s).write(out, types);
+        sectionEnds[section++] = out.position();
+        out.putInt(sim.enemies.size());
+        for (int i=0; i<sim.enemies.size(); i++) sim.enemies.at(i).write(out, types);
+        sectionEnds[section++] = out.position();
+        sim.progressIndex.write(out, sim.enemies);
+        sectionEnds[section++] = out.position();
+        out.putInt(sim.towers.size());
+        for (int i=0; i<sim.towers.size(); i++) sim.towers.at(i).write(out, types);
+        sectionEnds[section++] = out.position();
+        out.putInt(sim.projectiles.size());
+        for (int i=0; i<sim.projectiles.size(); i++) sim.projectiles.at(i).write(out, sim, types);
+        sectionEnds[section++] = out.position();
+        sim.writeState(out, types);
+        sectionEnds[section++] = out.position();
+        return out;
+    }
+
+    /**
+     * restores a simulation from a save
+     *
+     * @param levels the level pack the saved simulation was playing
+     * @param data the encoded state, from save
+     * @return the restored simulation
+     * @throws IllegalArgumentException if the data is not a save of a supported version, or does not match the level pack or data files
+     */
+    public static SimulationEngine load (NavigableMap<Integer,LevelData> levels, byte[] data) {
+        return load(levels, data, data.length);
+    }
+
+    /**
+     * restores a simulation from a save at the start of an array
+     *
+     * @param levels the level pack the saved simulation was playing
+     * @param data an array starting with the encoded state
+     * @param length the length of the encoded state
+     * @return the restored simulation
+     * @throws IllegalArgumentException if the data is not a save of a supported version, or does not match the level pack or data files
+     */
+    static SimulationEngine load (NavigableMap<Integer,LevelData> levels, byte[] data, int length) {
+        ByteBuffer in = ByteBuffer.wrap(data, 0, length);
+        try {
+            if (in.getInt()!=MAGIC) throw new IllegalArgumentException("not a save");
+            int version = in.getInt();
+            if (version!=VERSION) throw new IllegalArgumentException("unsupported save version "+version);
+            long seed = in.getLong();
+            SimulationEngine sim = new SimulationEngine(levels, seed, in.getInt());
+            Types types = Types.read(in);
+            sim.getPlayer().read(in);
+            for (int n=in.getInt(); n>0; n--) sim.swarms.add(Swarm.read(in, types));
+            for (int n=in.getInt(); n>0; n--) Enemy.read(sim, in, types);
+            sim.progressIndex.read(in, sim.enemies);
+            for (int n=in.getInt(); n>0; n--) Tower.read(sim, in, types);
+            for (int n=in.getInt(); n>0; n--) Projectile.read(sim, in, types);
+            sim.readState(in, types);
+            return sim;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("save is truncated or corrupt", e);
+        }
+    }
+
+    /**
+     * saves a simulation's whole state to a file, replacing any previous contents
+     *
+     * @param sim the simulation to be saved
+     * @param filePath the file to write to
+     * @throws IOException if the file cannot be written
+     * @throws IllegalStateException if an entity's type is no longer in the data files
+     */
+    public static void saveToFile (SimulationEngine sim, String filePath) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(filePath)) {out.write(save(sim));}
+    }
+
+    /**
+     * restores a simulation from a save file
+     *
+     * @param levels the level pack the saved simulation was playing
+     * @param filePath the file to read from
+     * @return the restored simulation
+     * @throws IOException if the file cannot be read
+     */
+    public static SimulationEngine loadFromFile (NavigableMap<Integer,LevelData> levels, String filePath) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
+            byte[] data = new byte[(int)file.length()];
+            file.readFully(data);
+            return load(levels, data);
+        }
+    }
+
+    /* the interned enemy and tower type names of one save */
+    static class Types {
+        private final String[] enemyNames;
+        private final String[] towerNames;
+        private final Map<String,Integer> enemyIds = new HashMap<String,Integer>();
+        private final Map<String,Integer> towerIds = new HashMap<String,Integer>();
+
+        private Types (String[] nenemyNames, String[] ntowerNames) {
+            enemyNames = nenemyNames;
+            towerNames = ntowerNames;
+            for (int i=0; i<enemyNames.length; i++) enemyIds.put(enemyNames[i], i);
+            for (int i=0; i<towerNames.length; i++) towerIds.put(towerNames[i], i);
+        }
+
+        // ids, for writing
+        int enemyId (String name) {return id(enemyIds, "enemy", name);}
+        int towerId (String name) {return id(towerIds, "tower", name);}
+
+        // names, for reading
+        String enemyName (int id) {return enemyNames[id];}
+        String towerName (int id) {return towerNames[id];}
+
+        // an upper bound on the bytes the tables take
+        private int size() {
+            int result = 2*Integer.BYTES;
+            for (String s : enemyNames) result += Short.BYTES + 4*s.length();
+            for (String s : towerNames) result += Short.BYTES + 4*s.length();
+            return result;
+        }
+
+        // tables are built from the data files as they are when saving; hot reloads refuse to remove types in use,
+        // so a type is only missing if the data was replaced some other way
+        private static int id (Map<String,Integer> ids, String kind, String name) {
+            Integer id = ids.get(name);
+            if (id==null) throw new IllegalStateException(kind+" type "+name+" is no longer in the data files, so it cannot be saved");
+            return id;
+        }
+
+        private void write (ByteBuffer out) {
+            out.putInt(enemyNames.length);
+            for (String s : enemyNames) writeString(out, s);
+            out.putInt(towerNames.length);
+            for (String s : towerNames) writeString(out, s);
+        }
+
+        // types no longer in the data files cannot be restored
+        private static Types read (ByteBuffer in) {
+            String[] enemyNames = new String[in.getInt()];
+            for (int i=0; i<enemyNames.length; i++) {
+                enemyNames[i] = readString(in);
+                if (!Enemy.DATA.containsKey(enemyNames[i])) throw new IllegalArgumentException("unknown enemy type "+enemyNames[i]);
+            }
+            String[] towerNames = new String[in.getInt()];
+            for (int i=0; i<towerNames.length; i++) {
+                towerNames[i] = readString(in);
+                if (!Tower.DATA.containsKey(towerNames[i])) throw new IllegalArgumentException("unknown tower type "+towerNames[i]);
+            }
+            return new Types(enemyNames, towerNames);
+        }
+    }
+
+    private static void writeString (ByteBuffer out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.putShort((short)bytes.length);
+        out.put(bytes);
+    }
+
+    private static String readString (ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
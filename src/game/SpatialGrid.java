@@ -0,0 +1,143 @@
+package game;
+
+import java.util.Arrays;
+import java.util.List;
+
+/* uniform grid over the map, bucketing Enemy entities by position for range queries
+   entries are counting-sorted into one contiguous array per rebuild, so no per-cell lists are kept;
+   positions outside the map are clamped to the edge cells, which keeps every query exact */
+class SpatialGrid {
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    private final int[] cellStart;
+    private final int[] cellFill;
+    private Enemy[] entries = new Enemy[0];
+    private int[] entryCells = new int[0];
+    // explosions bucketed by the cells they overlap, reused between batches
+    private final int[] explosionStart;
+    private int[] explosionEntries = new int[0];
+    private boolean dirty = true;
+
+    /**
+     * creates an empty grid covering a map
+     *
+     * @param width the width of the map
+     * @param height the height of the map
+     * @param ncellSize the width and height of a single cell
+     */
+    SpatialGrid (double width, double height, double ncellSize) {
+        cellSize = ncellSize;
+        columns = Math.max(1, (int)Math.ceil(width/cellSize));
+        rows = Math.max(1, (int)Math.ceil(height/cellSize));
+        cellStart = new int[columns*rows+1];
+        cellFill = new int[columns*rows];
+        explosionStart = new int[columns*rows+1];
+    }
+
+    // marks the grid as out of date, so it is rebuilt before the next query
+    void invalidate() {dirty = true;}
+
+    /**
+     * finds the Enemies whose centre is strictly within range of a set position
+     * rebuilds the grid first if any Enemy has moved or spawned since the last query
+     *
+     * @param enemies the registry of all Enemy entities to be indexed
+     * @param x the x coordinate of the position in question
+     * @param y the y coordinate of the position in question
+     * @param range the range in question
+     * @param result the list to be cleared and filled with the Enemy entities within range,
+     *               ordered by cell then by registry order
+     */
+    void withinRangeOf (EntityRegistry<Enemy> enemies, double x, double y, double range, List<Enemy> result) {
+        if (dirty) rebuild(enemies);
+        result.clear();
+        double rangeSquared = range*range;
+        int colLow = column(x-range);
+        int colHigh = column(x+range);
+        int rowLow = row(y-range);
+        int rowHigh = row(y+range);
+        for (int r=rowLow; r<=rowHigh; r++) {
+            for (int c=colLow; c<=colHigh; c++) {
+                int cell = r*columns+c;
+                for (int i=cellStart[cell]; i<cellStart[cell+1]; i++) {
+                    if (entries[i].body.getDistanceSquaredFrom(x, y)<rangeSquared) result.add(entries[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * damages the Enemies whose centre is strictly within range of each of a batch of explosions
+     * explosions are counting-sorted into the cells they overlap, then each touched cell's Enemies are visited once,
+     * each taking the summed damage of the explosions reaching it; cells are visited in order, as are explosions within them
+     *
+     * @param enemies the registry of all Enemy entities to be indexed
+     * @param explosions the explosions to resolve
+     */
+    void damageWithin (EntityRegistry<Enemy> enemies, Explosions explosions) {
+        if (dirty) rebuild(enemies);
+        int n = explosions.size();
+        int cells = columns*rows;
+        Arrays.fill(explosionStart, 0);
+        int total = 0;
+        for (int e=0; e<n; e++) {
+            double x = explosions.x(e);
+            double y = explosions.y(e);
+            double r = explosions.range(e);
+            for (int row=row(y-r); row<=row(y+r); row++) {
+                for (int c=column(x-r); c<=column(x+r); c++) {explosionStart[row*columns+c+1]++; total++;}
+            }
+        }
+        if (explosionEntries.length<total) explosionEntries = new int[Math.max(total, explosionEntries.length*2)];
+        for (int c=0; c<cells; c++) explosionStart[c+1] += explosionStart[c];
+        System.arraycopy(explosionStart, 0, cellFill, 0, cells);
+        for (int e=0; e<n; e++) {
+            double x = explosions.x(e);
+            double y = explosions.y(e);
+            double r = explosions.range(e);
+            for (int row=row(y-r); row<=row(y+r); row++) {
+                for (int c=column(x-r); c<=column(x+r); c++) explosionEntries[cellFill[row*columns+c]++] = e;
+            }
+        }
+        for (int cell=0; cell<cells; cell++) {
+            if (explosionStart[cell]==explosionStart[cell+1]) continue;
+            for (int i=cellStart[cell]; i<cellStart[cell+1]; i++) {
+                Enemy enemy = entries[i];
+                int damage = 0;
+                for (int k=explosionStart[cell]; k<explosionStart[cell+1]; k++) {
+                    int e = explosionEntries[k];
+                    double r = explosions.range(e);
+                    if (enemy.body.getDistanceSquaredFrom(explosions.x(e), explosions.y(e))<r*r) damage += explosions.damage(e);
+                }
+                if (damage!=0) enemy.damage(damage);
+            }
+        }
+    }
+
+    // counting sort of all Enemy entities by the cell they are in
+    private void rebuild (EntityRegistry<Enemy> enemies) {
+        int n = enemies.size();
+        if (entries.length<n) {
+            entries = new Enemy[Math.max(n, entries.length*2)];
+            entryCells = new int[entries.length];
+        }
+        Arrays.fill(cellStart, 0);
+        // count entries per cell, storing each entry's cell in registry order
+        for (int i=0; i<n; i++) {
+            Body b = enemies.at(i).body;
+            int cell = row(b.getY())*columns+column(b.getX());
+            entryCells[i] = cell;
+            cellStart[cell+1]++;
+        }
+        // prefix sum into cell start offsets, then place entries
+        for (int c=0; c<columns*rows; c++) cellStart[c+1] += cellStart[c];
+        System.arraycopy(cellStart, 0, cellFill, 0, cellFill.length);
+        for (int i=0; i<n; i++) entries[cellFill[entryCells[i]]++] = enemies.at(i);
+        Arrays.fill(entries, n, entries.length, null);
+        dirty = false;
+    }
+
+    private int column (double x) {return Math.min(columns-1, Math.max(0, (int)Math.floor(x/cellSize)));}
+    private int row (double y) {return Math.min(rows-1, Math.max(0, (int)Math.floor(y/cellSize)));}
+}
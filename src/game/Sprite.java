@@ -6,44 +6,61 @@ import bagel.util.Colour;
 import bagel.util.Point;
 import bagel.util.Rectangle;
 
-/* container for any drawable object within the game
-  contains inbuilt storage for position and draw options */
-public class Sprite extends Image {
-    private Point position = new Point(0.0,0.0);
+/* lightweight handle for any drawable object within the game
+  holds position, rotation and blend state, drawn with a texture shared through the TextureCache;
+  call release once the Sprite will no longer be drawn */
+public class Sprite {
+    private final String filename;
+    private final Image texture;
+    private boolean released = false;
+    private double x = 0.0;
+    private double y = 0.0;
     private boolean topLeftPos = false; // whether coordinates are relative to center or top-left
     private double rotation = 0.0;
     private boolean useBlend = false;
     private Colour blend = new Colour(0,0,0,1.0);
+    // reused every draw, so drawing does not allocate
+    private final DrawOptions plainOptions = new DrawOptions();
+    private final DrawOptions blendOptions = new DrawOptions();
 
     // constructors
-    public Sprite (String filename) {super(filename);}
+    public Sprite (String nfilename) {
+        filename = nfilename;
+        texture = TextureCache.acquire(filename);
+    }
 
     public Sprite (String filename, Point nposition) {
-        super(filename);
-        position = nposition;
+        this(filename);
+        setPosition(nposition);
     }
 
     public Sprite (String filename, Point nposition, boolean ntopLeftPos) {
-        super(filename);
-        position = nposition;
+        this(filename);
+        setPosition(nposition);
         topLeftPos = ntopLeftPos;
     }
 
     public Sprite (String filename, Point nposition, double nrotation) {
-        super(filename);
-        position = nposition;
+        this(filename);
+        setPosition(nposition);
         rotation = nrotation;
     }
 
     // getters
-    public Point getPosition() {return position;}
+    public String getFilename() {return filename;}
+    public double getWidth() {return texture.getWidth();}
+    public double getHeight() {return texture.getHeight();}
+    public double getX() {return x;}
+    public double getY() {return y;}
+    public Point getPosition() {return new Point(x,y);}
+    public boolean getTopLeftPos() {return topLeftPos;}
     public double getRotation() {return rotation;}
     public boolean getUseBlend() {return useBlend;}
     public Colour getBlend() {return blend;}
 
     // setters
-    public void setPosition (Point setTo) {position = setTo;}
-    public void setPosition (double setToX, double setToY) {position = new Point(setToX,setToY);}
+    public void setPosition (Point setTo) {x = setTo.x; y = setTo.y;}
+    public void setPosition (double setToX, double setToY) {x = setToX; y = setToY;}
     public void setRotation (double setTo) {rotation = setTo % (2*Math.PI);}
     public void setUseBlend (boolean setTo) {useBlend = setTo;}
     public void setBlend (Colour setTo) {blend = setTo;}
@@ -55,20 +72,27 @@ public class Sprite extends Image {
      * @return the Euclidean distance from the Point
      */
     public double getDistanceFrom(Point point) {
-        return Math.sqrt(Math.pow(point.x-position.x,2)+Math.pow(point.y-position.y,2));
+        return Math.sqrt((point.x-x)*(point.x-x)+(point.y-y)*(point.y-y));
     }
 
     // draws the sprite with its stored position and draw options
     public void draw() {
-        DrawOptions d = new DrawOptions(); d.setRotation(rotation);
+        DrawOptions d = useBlend ? blendOptions : plainOptions;
+        d.setRotation(rotation);
         if (useBlend) d.setBlendColour(blend);
-        if (topLeftPos) super.drawFromTopLeft(position.x, position.y,d);
-        else super.draw(position.x, position.y, d);
+        if (topLeftPos) texture.drawFromTopLeft(x, y, d);
+        else texture.draw(x, y, d);
     }
 
     // creates a bounding box at the sprite's position
     public Rectangle getBoundingBoxAtPosition() {
-        if (topLeftPos) return super.getBoundingBoxAt(new Point(position.x+getWidth()/2, position.y+getHeight()/2));
-        else return super.getBoundingBoxAt(position);
+        if (topLeftPos) return texture.getBoundingBoxAt(new Point(x+getWidth()/2, y+getHeight()/2));
+        else return texture.getBoundingBoxAt(new Point(x, y));
+    }
+
+    // gives up this Sprite's reference to its shared texture
+    public void release() {
+        if (!released) TextureCache.release(filename);
+        released = true;
     }
-}
\ No newline at end of file
+}
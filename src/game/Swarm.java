@@ -0,0 +1,382 @@
+package game;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import cfg.EnemyData;
+import cfg.TowerData;
+
+/* a large group of enemies of one type, spawned by a single wave event, stored as parallel arrays
+   each member is only a distance along the lane and its health, so a member costs 12 bytes;
+   members move at the same speed and enter in order, so they stay sorted by distance without sorting,
+   with the lead member first. members are identified by their spawn order, which towers aim at.
+   dead members are left in place until every member ahead of them has gone, then trimmed from the front.
+   children of dead members are spawned as individual Enemy entities
+   static methods manage swarm spawning, movement, targeting and drawing, like Enemy's do */
+public class Swarm {
+    // spawn events at least this large are spawned as a swarm
+    public static final int MIN_SIZE = 256;
+    // draws of all swarms per frame are capped, with nearby members of a swarm shown by a single sprite
+    public static final int MAX_DRAWS = 2048;
+    static final int NO_MEMBER = -1;
+    private static final double OVERLAP = 0.5; // share of a sprite's size below which nearby members are drawn once
+    private static final int REMOVED = Integer.MIN_VALUE; // health of a dead member that has been dealt with
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int FIRST = TowerData.targetingFromName(TowerData.FIRST);
+    private static final int LAST = TowerData.targetingFromName(TowerData.LAST);
+    private static final int STRONGEST = TowerData.targetingFromName(TowerData.STRONGEST);
+
+    /**
+     * spawns a member into a wave event's swarm, starting a new swarm if it has none or its old one has gone
+     *
+     * @param sim the simulation the member is spawned in
+     * @param swarm the event's current swarm, or null
+     * @param entityName the identifying name of the enemy type
+     * @param distance the distance along the lane to spawn at; negative if it has yet to enter
+     * @return the swarm the member was spawned into
+     */
+    static Swarm spawn (SimulationEngine sim, Swarm swarm, String entityName, double distance) {
+        if (swarm==null || swarm.retired) {
+            swarm = new Swarm(entityName);
+            sim.swarms.add(swarm);
+        }
+        swarm.append(distance);
+        return swarm;
+    }
+
+    /**
+     * moves all swarm members along the lane, rewards the player for dead members and spawns their children,
+     * and penalises the player for members that reached the end; swarms with no members left are removed
+     *
+     * @param sim the simulation whose swarms are updated
+     * @param frameTime amount of real time that one frame is shown for
+     */
+    public static void updateAll (SimulationEngine sim, double frameTime) {
+        for (int s=sim.swarms.size()-1; s>=0; s--) {
+            Swarm swarm = sim.swarms.get(s);
+            swarm.update(sim, frameTime);
+            if (swarm.alive==0) {
+                swarm.retired = true;
+                sim.swarms.remove(s);
+            }
+        }
+    }
+
+    /**
+     * submits draws of all swarms of a simulation, within the frame's draw cap
+     * members off the map are culled, and members closer together than part of a sprite
+     * on the same lane segment are drawn once; the spacing grows as needed to keep within the cap
+     *
+     * @param sim the simulation whose swarms are drawn
+     * @param buffer the buffer to submit to
+     */
+    public static void renderAll (SimulationEngine sim, RenderBuffer buffer) {
+        int n = sim.swarms.size();
+        // the cap is shared evenly, the remainder going to the first swarms; every swarm is drawn at least once,
+        // so with more swarms than the cap, each is drawn once and the cap is exceeded
+        for (int s=0; s<n; s++) sim.swarms.get(s).submit(sim, buffer, Math.max(1, MAX_DRAWS/n + (s<MAX_DRAWS%n ? 1 : 0)));
+    }
+
+    /**
+     * counts the living members of all swarms of a simulation
+     *
+     * @param sim the simulation in question
+     * @return the number of living members
+     */
+    public static int countAll (SimulationEngine sim) {
+        int result = 0;
+        for (int s=0; s<sim.swarms.size(); s++) result += sim.swarms.get(s).alive;
+        return result;
+    }
+
+    /**
+     * damages every living swarm member strictly within range of a position, such as a bomb's
+     *
+     * @param sim the simulation whose swarms are damaged
+     * @param x the x coordinate of the position
+     * @param y the y coordinate of the position
+     * @param range the range in question
+     * @param amount the amount of damage each member takes
+     */
+    public static void damageWithinRangeOf (SimulationEngine sim, double x, double y, double range, int amount) {
+        if (sim.swarms.isEmpty()) return;
+        double[] coverage = sim.getLane().coverage(x, y, range);
+        for (int s=0; s<sim.swarms.size(); s++) sim.swarms.get(s).damageWithin(sim.getLane(), coverage, x, y, range*range, amount);
+    }
+
+    /**
+     * restores a swarm saved by write; members keep their ids, so towers' shots still find them
+     *
+     * @param in the buffer to read from
+     * @param types the type names of the save
+     * @return the restored swarm
+     */
+    static Swarm read (ByteBuffer in, Snapshot.Types types) {
+        Swarm swarm = new Swarm(types.enemyName(in.getShort()));
+        swarm.baseId = in.getInt();
+        int count = in.getInt();
+        swarm.distances = new double[Math.max(INITIAL_CAPACITY, count)];
+        swarm.healths = new int[swarm.distances.length];
+        for (int i=0; i<count; i++) {
+            swarm.distances[i] = in.getDouble();
+            swarm.healths[i] = in.getInt();
+            if (swarm.healths[i]!=REMOVED) swarm.alive++;
+        }
+        swarm.tail = count;
+        return swarm;
+    }
+
+    public final String entityName;
+    private final Body scratch; // positioned at a member when its position is needed
+    private double[] distances = new double[INITIAL_CAPACITY];
+    private int[] healths = new int[INITIAL_CAPACITY];
+    private int head = 0;       // storage index of the lead member
+    private int tail = 0;       // storage index after the last member
+    private int baseId = 0;     // id of the member at storage index 0
+    private int alive = 0;
+    private boolean retired = false;
+
+    // constructor
+    private Swarm (String nentityName) {
+        entityName = nentityName;
+        scratch = new Body(getData().spritePath);
+    }
+
+    // getters
+    public int countAlive() {return alive;}
+    EnemyData getData() {return Enemy.DATA.get(entityName);}
+    int storedMembers() {return tail-head;}
+
+    // writes a swarm's members from the lead one on, including dead ones not yet trimmed, for a save
+    void write (ByteBuffer out, Snapshot.Types types) {
+        out.putShort((short)types.enemyId(entityName));
+        out.putInt(baseId+head);
+        out.putInt(tail-head);
+        for (int i=head; i<tail; i++) {
+            out.putDouble(distances[i]);
+            out.putInt(healths[i]);
+        }
+    }
+
+    /**
+     * checks if a member is still alive
+     *
+     * @param id the member's id
+     * @return whether the member has neither died nor left the lane
+     */
+    boolean isAlive (int id) {
+        int i = id-baseId;
+        return i>=head && i<tail && healths[i]>0;
+    }
+
+    // member getters, for ids that are alive
+    int healthOf (int id) {return healths[id-baseId];}
+    double distanceOf (int id) {return distances[id-baseId];}
+
+    /**
+     * moves the scratch body to a member's position
+     *
+     * @param lane the lane the swarm travels on
+     * @param id the member's id, which must be alive
+     * @return the scratch body, valid until the next call
+     */
+    Body bodyOf (Lane lane, int id) {
+        lane.place(scratch, distances[id-baseId]);
+        return scratch;
+    }
+
+    /**
+     * damages a member by a set absolute amount; dead members take no further damage
+     *
+     * @param id the member's id
+     * @param amount the amount of damage taken
+     */
+    void damage (int id, int amount) {
+        int i = id-baseId;
+        if (i>=head && i<tail && healths[i]>0) healths[i] -= amount;
+    }
+
+    /**
+     * chooses a tower's target among the living members strictly within its range, as ProgressIndex does
+     * only reads the swarm, so it may be called from several threads at once, each with its own probe
+     *
+     * @param lane the lane the swarm travels on
+     * @param coverage the tower's coverage of the lane, from Lane.coverage
+     * @param targeting the tower's targeting strategy, from TowerData
+     * @param x the x coordinate of the tower
+     * @param y the y coordinate of the tower
+     * @param range the range of the tower
+     * @param probe a body to be moved to members while checking their range
+     * @return the chosen member's id, or NO_MEMBER if none are in range
+     */
+    int target (Lane lane, double[] coverage, int targeting, double x, double y, double range, Body probe) {
+        double rangeSquared = range*range;
+        int best = NO_MEMBER;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c=0; c<coverage.length; c+=3) {
+            // members are in descending distance order, so an interval's lead member has the lowest index
+            int low = firstAtOrBelow(coverage[c+1]);
+            int high = lastFrom(coverage[c]);
+            if (low>high) continue;
+            int ahead = NO_MEMBER;
+            int behind = NO_MEMBER;
+            if (targeting==FIRST) ahead = scan(lane, probe, low, high, 1, x, y, rangeSquared);
+            else if (targeting==LAST) ahead = scan(lane, probe, high, low, -1, x, y, rangeSquared);
+            else if (targeting==STRONGEST) ahead = strongestIn(lane, probe, low, high, x, y, rangeSquared);
+            else {
+                // distance from the tower is convex within an interval, so the closest member is the first found either side of the closest point
+                int split = Math.max(low, Math.min(high+1, firstBelow(coverage[c+2])));
+                ahead = scan(lane, probe, split-1, low, -1, x, y, rangeSquared);
+                behind = scan(lane, probe, split, high, 1, x, y, rangeSquared);
+            }
+            for (int k=0; k<2; k++) {
+                int i = k==0 ? ahead : behind;
+                if (i==NO_MEMBER) continue;
+                lane.place(probe, distances[i]);
+                double score = ProgressIndex.score(targeting, healths[i], distances[i], probe.getDistanceSquaredFrom(x, y), lane.getLength());
+                if (best==NO_MEMBER || score>bestScore) {best = i; bestScore = score;}
+            }
+        }
+        return best==NO_MEMBER ? NO_MEMBER : baseId+best;
+    }
+
+    // the first living member in range, scanning from one index to another inclusive in a direction
+    private int scan (Lane lane, Body probe, int from, int to, int direction, double x, double y, double rangeSquared) {
+        for (int i=from; (to-i)*direction>=0; i+=direction) if (inRange(lane, probe, i, x, y, rangeSquared)) return i;
+        return NO_MEMBER;
+    }
+
+    // a scan, ties going to the member further along; an undamaged member cannot be beaten, so one ends it early
+    private int strongestIn (Lane lane, Body probe, int low, int high, double x, double y, double rangeSquared) {
+        int maxHealth = getData().maxHealth;
+        int result = NO_MEMBER;
+        for (int i=low; i<=high; i++) {
+            if ((result==NO_MEMBER || healths[i]>healths[result]) && inRange(lane, probe, i, x, y, rangeSquared)) {
+                result = i;
+                if (healths[i]>=maxHealth) break;
+            }
+        }
+        return result;
+    }
+
+    private boolean inRange (Lane lane, Body probe, int i, double x, double y, double rangeSquared) {
+        if (healths[i]<=0) return false;
+        lane.place(probe, distances[i]);
+        return probe.getDistanceSquaredFrom(x, y)<rangeSquared;
+    }
+
+    private void append (double distance) {
+        if (tail==distances.length) {
+            // reclaim the space of trimmed members before growing
+            if (head>=distances.length/2) {
+                System.arraycopy(distances, head, distances, 0, tail-head);
+                System.arraycopy(healths, head, healths, 0, tail-head);
+                baseId += head;
+                tail -= head;
+                head = 0;
+            } else {
+                distances = Arrays.copyOf(distances, distances.length*2);
+                healths = Arrays.copyOf(healths, healths.length*2);
+            }
+        }
+        distances[tail] = distance;
+        healths[tail] = getData().maxHealth;
+        tail++;
+        alive++;
+    }
+
+    private void update (SimulationEngine sim, double frameTime) {
+        EnemyData data = getData();
+        Lane lane = sim.getLane();
+        double length = lane.getLength();
+        double moved = frameTime*data.speed;
+        for (int i=head; i<tail; i++) {
+            if (healths[i]!=REMOVED && healths[i]<=0) {
+                sim.getPlayer().reward(data.reward);
+                if (!data.childType.equals("")) {
+                    for (int j=0; j<data.childNum; j++) Enemy.addEnemy(sim, data.childType, distances[i]);
+                }
+                healths[i] = REMOVED;
+                alive--;
+            // members that reached the end last step leave now, as individual enemies do
+            } else if (healths[i]!=REMOVED && distances[i]>=length) {
+                sim.getPlayer().penalise(data.penalty);
+                healths[i] = REMOVED;
+                alive--;
+            }
+            // removed members keep moving with the rest, so distances stay in descending order for the binary searches
+            distances[i] = Math.min(length, distances[i]+moved);
+        }
+        while (head<tail && healths[head]==REMOVED) head++;
+    }
+
+    private void damageWithin (Lane lane, double[] coverage, double x, double y, double rangeSquared, int amount) {
+        // intervals are in lane order, so their index ranges descend; a member on a shared end is only damaged once
+        int limit = tail-1;
+        for (int c=0; c<coverage.length; c+=3) {
+            int low = firstAtOrBelow(coverage[c+1]);
+            int high = Math.min(limit, lastFrom(coverage[c]));
+            for (int i=low; i<=high; i++) if (inRange(lane, scratch, i, x, y, rangeSquared)) healths[i] -= amount;
+            limit = Math.min(limit, low-1);
+        }
+    }
+
+    private void submit (SimulationEngine sim, RenderBuffer buffer, int budget) {
+        if (alive==0) return;
+        Lane lane = sim.getLane();
+        double size = Math.max(scratch.getWidth(), scratch.getHeight());
+        double span = Math.max(0.0, distances[head])-Math.max(0.0, distances[tail-1]);
+        double spacing = Math.max(size*OVERLAP, span/budget);
+        double lastDrawn = Double.POSITIVE_INFINITY;
+        int lastSegment = -1;
+        int draws = 0;
+        for (int i=head; i<tail && draws<budget; ) {
+            if (healths[i]<=0) {i++; continue;}
+            double d = Math.max(0.0, distances[i]);
+            int segment = lane.segmentAt(d);
+            if (lastDrawn-d<spacing && segment==lastSegment) {
+                // skip to the first member past this sprite's footprint or onto the previous segment
+                i = Math.max(i+1, Math.min(firstAtOrBelow(lastDrawn-spacing), firstBelow(lane.startOf(lastSegment))));
+                continue;
+            }
+            lane.place(scratch, d);
+            double x = scratch.getX();
+            double y = scratch.getY();
+            if (x>-size && y>-size && x<sim.getWidth()+size && y<sim.getHeight()+size) {
+                buffer.submit(RenderBuffer.LAYER_ENEMIES, getData().spritePath, x, y, scratch.getRotation());
+                draws++;
+            }
+            lastDrawn = d;
+            lastSegment = segment;
+            i++;
+        }
+    }
+
+    // the last storage index at or past the start of an interval; members yet to enter are placed at the start of the lane,
+    // so an interval from there covers them too
+    private int lastFrom (double start) {return (start>0 ? firstBelow(start) : tail)-1;}
+
+    // the first storage index whose distance is at most a key, from head to tail
+    private int firstAtOrBelow (double key) {
+        int low = head;
+        int high = tail;
+        while (low<high) {
+            int mid = (low+high)>>>1;
+            if (distances[mid]>key) low = mid+1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    // the first storage index whose distance is below a key, from head to tail
+    private int firstBelow (double key) {
+        int low = head;
+        int high = tail;
+        while (low<high) {
+            int mid = (low+high)>>>1;
+            if (distances[mid]>=key) low = mid+1;
+            else high = mid;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,60 @@
+package game;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import bagel.Image;
+
+/* shared texture storage, so each image file is only loaded once however many Sprites use it
+   textures are reference counted by the Sprites holding them; textures that are no longer
+   referenced stay cached until evictUnused is called, which is done when a level unloads.
+   textures are only ever loaded on the render thread, so the cache is not synchronised */
+public abstract class TextureCache {
+    private static final Map<String,Entry> textures = new HashMap<String,Entry>();
+
+    /**
+     * returns the shared texture for an image file, loading it if it is not cached
+     * every call must be matched by a call to release
+     *
+     * @param filename path to the image, relative to project root directory
+     * @return the shared texture
+     */
+    public static Image acquire (String filename) {
+        Entry e = textures.get(filename);
+        if (e == null) {
+            e = new Entry(new Image(filename));
+            textures.put(filename, e);
+        }
+        e.references++;
+        return e.texture;
+    }
+
+    /**
+     * gives up one reference to a texture; the texture stays cached until evicted
+     *
+     * @param filename path to the image, as given to acquire
+     */
+    public static void release (String filename) {
+        Entry e = textures.get(filename);
+        if (e != null && e.references>0) e.references--;
+    }
+
+    // drops all textures that are no longer referenced by any Sprite
+    public static void evictUnused() {
+        for (Iterator<Entry> it = textures.values().iterator(); it.hasNext();) {
+            if (it.next().references==0) it.remove();
+        }
+    }
+
+    // number of textures currently cached
+    public static int size() {return textures.size();}
+
+    // a cached texture and its reference count
+    private static class Entry {
+        private final Image texture;
+        private int references = 0;
+
+        private Entry (Image ntexture) {texture = ntexture;}
+    }
+}
@@ -1,140 +1,306 @@
 package game;
 
-import java.util.List;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-import bagel.Window;
 import bagel.util.Point;
+import bagel.util.Rectangle;
 
-import java.util.HashMap;
 import cfg.TowerData;
-import cfg.UI;
 
 /* a singular tower that is placed down and attacks */
 public class Tower extends GameEntity {
     private static final double AIRPLANE_MOVESPEED = 375;
     private static final double SPRITE_ROTATION_OFFSET = Math.PI/2; // difference between enemy and tower sprites
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 128; // fewer towers are not worth handing to other threads
+    // towers choose targets in fixed chunks, so attack order does not depend on the number of threads
+    static final int CHUNK_SIZE = 32;
     
-    // all tower data as a Map
-    public static final Map<String,TowerData> DATA = TowerData.loadFromFile();
-    
-    private static boolean planeWillBeHorizontal = true;
-
-    // tracks all created Tower instances
-    private static Map<Integer,Tower> allInstances = new HashMap<Integer,Tower>();
+    // all tower data as a Map, replaced as a whole between frames when towers.csv is hot reloaded
+    public static volatile Map<String,TowerData> DATA = TowerData.loadFromFile();
 
-    public static boolean getPlaneWillBeHorizontal() {return planeWillBeHorizontal;}
+    /**
+     * returns the direction the next airplane placed in a simulation will fly in
+     *
+     * @param sim the simulation in question
+     * @return whether the next airplane will fly horizontally
+     */
+    public static boolean getPlaneWillBeHorizontal(SimulationEngine sim) {return sim.planeWillBeHorizontal;}
 
     /**
-     * adds a new Tower entity to the registry
+     * adds a new Tower entity to a simulation's registry
      *
+     * @param sim the simulation the Tower is placed in
      * @param entityName the identifying name of the Tower to be created
      * @param nposition the click position where the tower is placed
      */
-    public static void addTower(String entityName, Point nposition) {
+    public static void addTower(SimulationEngine sim, String entityName, Point nposition) {
         boolean isAirSupport = DATA.get(entityName).isAirSupport;
         if (isAirSupport) {
-            if (planeWillBeHorizontal) nposition = new Point(0, nposition.y);
-            else nposition = new Point(nposition.x, UI.getInstance().getBuyPanelHeight());
+            if (sim.planeWillBeHorizontal) nposition = new Point(0, nposition.y);
+            else nposition = new Point(nposition.x, sim.getPlayAreaTop());
         }
-        Tower t = new Tower(entityName, nposition, planeWillBeHorizontal);
+        Tower t = new Tower(entityName, nposition, sim.planeWillBeHorizontal, sim.splitRandom());
         if (isAirSupport) {
-            t.sprite.setRotation(planeWillBeHorizontal ? Math.PI/2 : Math.PI);
-            planeWillBeHorizontal = !planeWillBeHorizontal;
+            t.body.setRotation(sim.planeWillBeHorizontal ? Math.PI/2 : Math.PI);
+            sim.planeWillBeHorizontal = !sim.planeWillBeHorizontal;
         }
-        allInstances.put(t.id, t);
+        t.handle = sim.towers.add(t);
+        if (!isAirSupport) sim.placementGrid().stamp(t.body.getBoundingBoxAtPosition());
     }
-
-    // deletes all existing Tower entities
-    public static void resetAll() {allInstances = new HashMap<Integer,Tower>();}
     
     /**
-     * checks if a Tower is placeable at the current location
+     * checks if a Tower is placeable at the current location, using the simulation's placement grid
      *
-     * @param placing the sprite that is currently being placed
-     * @param panels a list of UI panels that towers cannot be placed on
-     * @param lane the lane on which the tower cannot be placed on
+     * @param sim the simulation the Tower would be placed in
+     * @param placing the bounding box of the tower that is currently being placed
      * @param isAirSupport whether the Tower is air support
      * @return whether the placement would be valid or not
      */
-    public static boolean getValidPlacement(Sprite placing, List<Sprite> panels, List<Point> lane, boolean isAirSupport) {
-        List<Sprite> collidable = new LinkedList<Sprite>();
-        if (isAirSupport) return !PathingManager.collisionCheck(placing, panels);
-        for (Tower t : allInstances.values()) {collidable.add(t.sprite);}
-        for (Sprite s : panels) {collidable.add(s);}
-        return !PathingManager.collisionCheck(placing, collidable) & !PathingManager.laneCollisionCheck(placing, lane);
+    public static boolean getValidPlacement(SimulationEngine sim, Rectangle placing, boolean isAirSupport) {
+        return sim.placementGrid().isFree(placing, isAirSupport);
     }
 
     /**
-     * updates all Tower instances and their associated Projectiles
+     * updates all Tower instances, then all Projectiles, in two phases
+     * first ground towers choose their targets from enemies that do not change during the phase, each chunk of towers
+     * writing its attacks into its own buffer; with enough towers, chunks run in parallel on the fork/join pool.
+     * then, on the calling thread, attacks are applied and airplanes are moved in descending registry order, as they
+     * would be by a single pass, and projectiles hit and bombs explode. towers only touch their own state while
+     * choosing, so the outcome does not depend on how chunks are scheduled
+     * airplanes that have left the map are removed
      *
+     * @param sim the simulation whose Tower entities are updated
      * @param frameTime amount of real time that one frame is shown for
      */
-    public static void updateAll (double frameTime) {
-        List<Integer> toRemove = new LinkedList<Integer>();
-        for (Map.Entry<Integer,Tower> et : allInstances.entrySet()) {
-            Tower t = et.getValue();
-            t.attackProgress+=frameTime;
-            List<Projectile> activeProjectiles = new LinkedList<Projectile>();
-            Sprite s = t.sprite;
-            Point current = s.getPosition();
+    public static void updateAll (SimulationEngine sim, double frameTime) {
+        int n = sim.towers.size();
+        int chunks = (n+CHUNK_SIZE-1)/CHUNK_SIZE;
+        AttackBuffer[] buffers = sim.attackBuffers(chunks);
+        // lazily built indexes are built now, so that choosing targets only reads them
+        sim.progressIndex.prepare(sim.enemies);
+        TargetingTask all = new TargetingTask(sim, frameTime, buffers, 0, chunks);
+        if (n>=sim.getTowerParallelThreshold()) ForkJoinPool.commonPool().invoke(all);
+        else all.compute();
+
+        for (int i=n-1; i>=0; i--) {
+            Tower t = sim.towers.at(i);
+            Body b = t.body;
             if (!t.getData().isAirSupport) {
-                // new attacks
-                List<Enemy> enemiesWithinRange = Enemy.withinRangeOf(current, t.getData().attackRadius);
-                if (t.attackProgress>t.currentAttackInterval & !enemiesWithinRange.isEmpty()) {
-                    Enemy chosenEnemy = enemiesWithinRange.get(0);
-                    t.resetAttackInterval();
-                    t.projectiles.add(new Projectile(chosenEnemy, t.getData().attackSpritePath, current));
-                    s.setRotation(PathingManager.newRotation(current, chosenEnemy.sprite.getPosition())+SPRITE_ROTATION_OFFSET);
-                }
-                // track existing projectiles
-                for (Projectile p : t.projectiles) {
-                    if (p.updateAndCheckTarget(frameTime)) {p.getTarget().damage(t.getData().attackDamage);}
-                    else {activeProjectiles.add(p);}
+                AttackBuffer buffer = buffers[i/CHUNK_SIZE];
+                if (buffer.next<buffer.count && buffer.towers[buffer.next]==i) {
+                    int a = buffer.next++;
+                    if (buffer.swarms[a]!=null) Projectile.addProjectile(sim, t, buffer.swarms[a], buffer.members[a], b.getPosition());
+                    else Projectile.addProjectile(sim, t, buffer.enemies[a].getHandle(), b.getPosition());
                 }
-                t.projectiles = activeProjectiles;
             } else {
+                t.attackProgress+=frameTime;
                 // move airplane
-                if (t.isHorizontal) s.setPosition(current.x+AIRPLANE_MOVESPEED*frameTime, current.y);
-                else s.setPosition(current.x, current.y+AIRPLANE_MOVESPEED*frameTime);
+                if (t.isHorizontal) b.setPosition(b.getX()+AIRPLANE_MOVESPEED*frameTime, b.getY());
+                else b.setPosition(b.getX(), b.getY()+AIRPLANE_MOVESPEED*frameTime);
                 // create new bomb if ready
-                if (s.getPosition().x>Window.getHeight() | s.getPosition().y>Window.getHeight()) {toRemove.add(et.getKey());}
                 if (t.attackProgress>t.currentAttackInterval) {
                     t.resetAttackInterval();
-                    t.projectiles.add(new Projectile(t.getData().attackSpritePath, s.getPosition()));
+                    Projectile.addBomb(sim, t, b.getPosition());
                 }
-                // track and explode existing bombs
-                for (Projectile p : t.projectiles) {
-                    if (p.updateAndCheckTarget(frameTime)) {
-                        for (Enemy e : Enemy.withinRangeOf(p.getPosition(), t.getData().attackRadius)) {
-                            e.damage(t.getData().attackDamage);
-                        }
-                    } else {activeProjectiles.add(p);}
-                } t.projectiles = activeProjectiles;
+                // bombs already dropped keep falling after the airplane leaves
+                if (b.getX()>sim.getWidth() | b.getY()>sim.getHeight()) {sim.towers.removeAt(i);}
             }
-            s.draw();
         }
+        for (int c=0; c<chunks; c++) buffers[c].clear();
+        // track existing projectiles and explode bombs
+        Projectile.updateAll(sim, frameTime);
+    }
+
+    // first phase for one ground tower: readies it, and if it can fire, chooses a target, turns to it and records the attack
+    private void chooseTarget (SimulationEngine sim, double frameTime, int index, AttackBuffer buffer) {
+        attackProgress+=frameTime;
+        // new attacks, only searched for once the tower is ready to fire
+        if (attackProgress<=currentAttackInterval) return;
+        Lane lane = sim.getLane();
+        int targeting = getData().targeting;
+        double range = getData().attackRadius;
+        double x = body.getX();
+        double y = body.getY();
+        Enemy chosenEnemy = sim.progressIndex.target(sim, getCoverage(sim), targeting, x, y, range);
+        double bestScore = chosenEnemy==null ? Double.NEGATIVE_INFINITY
+            : ProgressIndex.score(targeting, chosenEnemy.getHealth(), chosenEnemy.getDistance(), chosenEnemy.body.getDistanceSquaredFrom(x, y), lane.getLength());
+        double targetX = chosenEnemy==null ? 0 : chosenEnemy.body.getX();
+        double targetY = chosenEnemy==null ? 0 : chosenEnemy.body.getY();
+        // swarm members compete with individual enemies by the same scores
+        Swarm chosenSwarm = null;
+        int chosenMember = Swarm.NO_MEMBER;
+        Body scratch = buffer.scratch;
+        for (int s=0; s<sim.swarms.size(); s++) {
+            Swarm swarm = sim.swarms.get(s);
+            int member = swarm.target(lane, getCoverage(sim), targeting, x, y, range, scratch);
+            if (member==Swarm.NO_MEMBER) continue;
+            lane.place(scratch, swarm.distanceOf(member));
+            double score = ProgressIndex.score(targeting, swarm.healthOf(member), swarm.distanceOf(member), scratch.getDistanceSquaredFrom(x, y), lane.getLength());
+            if (score>bestScore) {
+                chosenSwarm = swarm;
+                chosenMember = member;
+                bestScore = score;
+                targetX = scratch.getX();
+                targetY = scratch.getY();
+            }
+        }
+        if (chosenSwarm==null && chosenEnemy==null) return;
+        resetAttackInterval();
+        body.setRotation(PathingManager.newRotation(x, y, targetX, targetY)+SPRITE_ROTATION_OFFSET);
+        buffer.add(index, chosenSwarm==null ? chosenEnemy : null, chosenSwarm, chosenMember);
+    }
+
+    /* the attacks chosen by one chunk of towers in the first phase, in descending tower order */
+    static class AttackBuffer {
+        private final Body scratch = new Body(0, 0); // positioned at swarm members while choosing, so swarms are only read
+        private int count = 0;
+        private int next = 0; // the next attack to be applied
+        private int[] towers = new int[CHUNK_SIZE];
+        private Enemy[] enemies = new Enemy[CHUNK_SIZE];
+        private Swarm[] swarms = new Swarm[CHUNK_SIZE];
+        private int[] members = new int[CHUNK_SIZE];
+
+        private void add (int tower, Enemy enemy, Swarm swarm, int member) {
+            towers[count] = tower;
+            enemies[count] = enemy;
+            swarms[count] = swarm;
+            members[count] = member;
+            count++;
+        }
+
+        private void clear() {
+            Arrays.fill(enemies, 0, count, null);
+            Arrays.fill(swarms, 0, count, null);
+            count = 0;
+            next = 0;
+        }
+    }
+
+    /* the first phase over a range of chunks, split in half until a single chunk is left */
+    private static class TargetingTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SimulationEngine sim;
+        private final double frameTime;
+        private final AttackBuffer[] buffers;
+        private final int from;
+        private final int to;
+
+        private TargetingTask (SimulationEngine nsim, double nframeTime, AttackBuffer[] nbuffers, int nfrom, int nto) {
+            sim = nsim;
+            frameTime = nframeTime;
+            buffers = nbuffers;
+            from = nfrom;
+            to = nto;
+        }
+
+        @Override
+        protected void compute() {
+            if (to-from>1) {
+                int mid = (from+to)>>>1;
+                invokeAll(new TargetingTask(sim, frameTime, buffers, from, mid), new TargetingTask(sim, frameTime, buffers, mid, to));
+                return;
+            }
+            for (int c=from; c<to; c++) {
+                int end = Math.min(sim.towers.size(), (c+1)*CHUNK_SIZE);
+                for (int i=end-1; i>=c*CHUNK_SIZE; i--) {
+                    Tower t = sim.towers.at(i);
+                    if (!t.getData().isAirSupport) t.chooseTarget(sim, frameTime, i, buffers[c]);
+                }
+            }
+        }
+    }
+
+    /**
+     * submits draws of all Tower entities of a simulation and their Projectiles
+     *
+     * @param sim the simulation whose Tower entities are drawn
+     * @param buffer the buffer to submit to
+     */
+    public static void renderAll (SimulationEngine sim, RenderBuffer buffer) {
+        for (int i=0; i<sim.towers.size(); i++) sim.towers.at(i).submit(buffer, RenderBuffer.LAYER_TOWERS);
+        for (int i=0; i<sim.projectiles.size(); i++) sim.projectiles.at(i).submit(buffer);
+    }
+
+    /**
+     * restores a Tower saved by write, drawing nothing from the simulation's random generator
+     * the placement grid is rebuilt once every Tower is restored
+     *
+     * @param sim the simulation the Tower is restored to
+     * @param in the buffer to read from
+     * @param types the type names of the save
+     */
+    static void read (SimulationEngine sim, ByteBuffer in, Snapshot.Types types) {
+        String entityName = types.towerName(in.getShort());
+        Point position = new Point(in.getDouble(), in.getDouble());
+        double rotation = in.getDouble();
+        double attackProgress = in.getDouble();
+        double currentAttackInterval = in.getDouble();
+        boolean isHorizontal = in.get()!=0;
+        SeededRandom random = new SeededRandom(in.getLong(), in.getLong());
+        Tower t = new Tower(entityName, position, rotation, attackProgress, currentAttackInterval, isHorizontal, random);
+        t.handle = sim.towers.add(t);
     }
 
     private final boolean isHorizontal;
     private double attackProgress = 0.0;
     private double currentAttackInterval;
-    private List<Projectile> projectiles = new LinkedList<Projectile>();
+    private final SeededRandom random;
+    private double[] coverage = null; // parts of the lane within range, for targeting
+    private double coverageRadius = 0.0;
 
     // constructor
-    private Tower (String entityName, Point nposition, boolean nisHorizontal) {
+    private Tower (String entityName, Point nposition, boolean nisHorizontal, SeededRandom nrandom) {
         super(entityName, DATA.get(entityName).spritePath);
-        super.sprite.setPosition(nposition);
+        super.body.setPosition(nposition);
+        random = nrandom;
         resetAttackInterval();
         attackProgress = currentAttackInterval;
         isHorizontal = nisHorizontal;
     }
 
-    private TowerData getData() {return DATA.get(super.entityName);}
+    // constructor for a restored Tower, whose attack timing is already drawn
+    private Tower (String entityName, Point nposition, double nrotation, double nattackProgress, double ncurrentAttackInterval,
+                   boolean nisHorizontal, SeededRandom nrandom) {
+        super(entityName, DATA.get(entityName).spritePath);
+        super.body.setPosition(nposition);
+        super.body.setRotation(nrotation);
+        attackProgress = nattackProgress;
+        currentAttackInterval = ncurrentAttackInterval;
+        isHorizontal = nisHorizontal;
+        random = nrandom;
+    }
+
+    TowerData getData() {return DATA.get(super.entityName);}
+
+    // writes a Tower's state for a save
+    void write (ByteBuffer out, Snapshot.Types types) {
+        out.putShort((short)types.towerId(entityName));
+        out.putDouble(body.getX());
+        out.putDouble(body.getY());
+        out.putDouble(body.getRotation());
+        out.putDouble(attackProgress);
+        out.putDouble(currentAttackInterval);
+        out.put((byte)(isHorizontal ? 1 : 0));
+        out.putLong(random.getSeed());
+        out.putLong(random.getGamma());
+    }
+
+    // the parts of the lane within range; towers do not move, so this is only recomputed if the range is reloaded
+    private double[] getCoverage (SimulationEngine sim) {
+        if (coverage==null || coverageRadius!=getData().attackRadius) {
+            coverageRadius = getData().attackRadius;
+            coverage = sim.getLane().coverage(body.getX(), body.getY(), coverageRadius);
+        }
+        return coverage;
+    }
 
     private void resetAttackInterval() {
         attackProgress = 0.0;
-        currentAttackInterval = Math.random()*(getData().attackIntervalCeil-getData().attackIntervalFloor)+getData().attackIntervalFloor;
+        currentAttackInterval = random.nextDouble()*(getData().attackIntervalCeil-getData().attackIntervalFloor)+getData().attackIntervalFloor;
     }
-}
\ No newline at end of file
+}
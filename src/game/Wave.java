@@ -1,16 +1,19 @@
 package game;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.List;
-import bagel.util.Point;
+import java.util.PriorityQueue;
 import cfg.EventData;
 
-/* a Wave consists of stages of EventData, executed sequentially
-   wave spawning incrementation and logic is included in the class */
+/* a Wave consists of EventData, compiled into a timeline of spawn streams
+   spawn and delay events follow each other, while stream events overlap the events after them;
+   every spawn has an exact timestamp, and all spawns due within a tick happen in that tick;
+   events of at least Swarm.MIN_SIZE enemies spawn into a Swarm instead of as individual Enemy entities */
 public class Wave {
     // wave end rewards
     private static final int WAVE_REWARD_BASE = 150;
     private static final int WAVE_REWARD_MULTIPLIER = 100;
+    private static final int STREAM = EventData.eventTypeFromName(EventData.STREAM);
 
     /**
      * computes reward for completing a wave
@@ -22,42 +25,132 @@ public class Wave {
         else return WAVE_REWARD_BASE + WAVE_REWARD_MULTIPLIER * waveNum;
     }
 
-    private final List<EventData> events;
-    private int phase = 0;
-    private double intervals = 0.0;
-    private double intervalProgress = 1.0;
+    private final PriorityQueue<Stream> streams = new PriorityQueue<Stream>(); // ordered by next spawn
+    private double elapsed = 0.0;
+    private double endTime = 0.0;
 
-    // constructor
-    public Wave() {events = new ArrayList<EventData>();}
-    public Wave (List<EventData> nevents) {events = nevents;}
+    // constructors
+    public Wave() {}
+    public Wave (List<EventData> nevents) {
+        double timeline = 0.0;
+        int order = 0;
+        for (EventData e : nevents) {
+            double duration = e.numToSpawn*e.interval;
+            if (EventData.isSpawning(e.eventType)) streams.add(new Stream(e, timeline, order++));
+            endTime = Math.max(endTime, timeline+duration);
+            if (e.eventType!=STREAM) timeline += duration;
+        }
+    }
 
     // getters
-    public boolean isComplete() {return phase>=events.size();}
+    public boolean isComplete() {return streams.isEmpty() && elapsed>=endTime;}
+    int countStreams() {return streams.size();}
+
+    /**
+     * writes the wave's progress for a save; streams refer to their swarms by index in the simulation
+     *
+     * @param out the buffer to write to
+     * @param sim the simulation the wave is played in
+     * @param types the type names of the save
+     */
+    void write (ByteBuffer out, SimulationEngine sim, Snapshot.Types types) {
+        out.putDouble(elapsed);
+        out.putDouble(endTime);
+        out.putInt(streams.size());
+        for (Stream s : streams) {
+            out.putShort((short)types.enemyId(s.enemy));
+            out.putInt(s.count);
+            out.putDouble(s.start);
+            out.putDouble(s.interval);
+            out.putInt(s.order);
+            out.putInt(s.spawned);
+            out.putInt(s.swarm==null ? -1 : sim.swarms.indexOf(s.swarm)); // a retired swarm is replaced on the next spawn
+        }
+    }
 
     /**
-     * increments wave phase, interval and interval progress
-     * loads new EventData upon event completion
-     * does nothing if Wave is complete
+     * restores a wave's progress saved by write, after the simulation's swarms
      *
+     * @param in the buffer to read from
+     * @param sim the simulation the wave is played in
+     * @param types the type names of the save
+     * @return the restored wave
+     */
+    static Wave read (ByteBuffer in, SimulationEngine sim, Snapshot.Types types) {
+        Wave wave = new Wave();
+        wave.elapsed = in.getDouble();
+        wave.endTime = in.getDouble();
+        for (int n=in.getInt(); n>0; n--) {
+            String enemy = types.enemyName(in.getShort());
+            int count = in.getInt();
+            double start = in.getDouble();
+            double interval = in.getDouble();
+            Stream s = new Stream(enemy, count, start, interval, in.getInt());
+            s.spawned = in.getInt();
+            s.nextTime = start+s.spawned*interval;
+            int swarm = in.getInt();
+            if (swarm>=0) s.swarm = sim.swarms.get(swarm);
+            wave.streams.add(s);
+        }
+        return wave;
+    }
+
+    /**
+     * advances the wave's timeline, spawning every Enemy due within the tick
+     * each Enemy is placed back along the lane by the time between its timestamp and the end of the tick,
+     * so it ends the tick where it would have been had it spawned exactly on time
+     *
+     * @param sim the simulation which newly spawned Enemy entities are added to
      * @param frameTime amount of real time that one frame is shown for
-     * @param nmovementPath a List of Points which newly spawned Enemy entities will travel on
      */
-    public void updateAll (double frameTime, List<Point> nmovementPath) {
-        if (isComplete()) return;
-        double progress = frameTime/getCurrentEventData().interval;
-        intervalProgress += progress;
-        intervals += progress;
-        if (intervalProgress >= 1.0) {
-            intervalProgress = 0.0;
-            if (getCurrentEventData().eventType==EventData.eventTypeFromName(EventData.SPAWN)) {
-                Enemy.addEnemy(getCurrentEventData().enemyToSpawn, nmovementPath);
-            }
-        }
-        if (intervals >= getCurrentEventData().numToSpawn) {
-            intervals=0;
-            phase++;
+    public void updateAll (SimulationEngine sim, double frameTime) {
+        double tickStart = elapsed;
+        elapsed += frameTime;
+        while (!streams.isEmpty() && streams.peek().nextTime<=elapsed) {
+            Stream s = streams.poll();
+            // moved along by the enemy update later in the same tick
+            double distance = (tickStart-s.nextTime)*Enemy.DATA.get(s.enemy).speed;
+            if (s.count>=Swarm.MIN_SIZE) s.swarm = Swarm.spawn(sim, s.swarm, s.enemy, distance);
+            else Enemy.addEnemy(sim, s.enemy, distance);
+            if (s.advance()) streams.add(s);
         }
     }
 
-    private EventData getCurrentEventData() {return events.size()>phase ? events.get(phase) : EventData.blank();}
-}
\ No newline at end of file
+    /* a single spawn or stream event, spawning at fixed intervals from its start time */
+    private static class Stream implements Comparable<Stream> {
+        private final String enemy;
+        private final int count;
+        private final double start;
+        private final double interval;
+        private final int order; // position in the wave file, breaking ties between simultaneous spawns
+        private int spawned = 0;
+        private double nextTime;
+        private Swarm swarm = null; // large events spawn into a swarm rather than as individual enemies
+
+        private Stream (EventData e, double nstart, int norder) {
+            this(e.enemyToSpawn, e.numToSpawn, nstart, e.interval, norder);
+        }
+
+        private Stream (String nenemy, int ncount, double nstart, double ninterval, int norder) {
+            enemy = nenemy;
+            count = ncount;
+            start = nstart;
+            interval = ninterval;
+            order = norder;
+            nextTime = start;
+        }
+
+        // moves on to the next spawn, returning whether there is one
+        private boolean advance() {
+            spawned++;
+            nextTime = start+spawned*interval; // not accumulated, so timestamps do not drift
+            return spawned<count;
+        }
+
+        @Override
+        public int compareTo (Stream other) {
+            int c = Double.compare(nextTime, other.nextTime);
+            return c!=0 ? c : Integer.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package tools;
+
+import java.io.IOException;
+
+import cfg.LevelData;
+
+/* build step compiling a level pack into the binary bundle the game loads in place of its text sources
+   the bundle is written next to the level data file, e.g. res/levels.csv to res/levels.bundle
+   usage: LevelBundler [levelDataFile...] */
+public class LevelBundler {
+    private static final String DEFAULT_LEVELS_PATH = "res/levels.csv";
+
+    public static void main(String[] args) {
+        String[] levelsPaths = args.length>0 ? args : new String[] {DEFAULT_LEVELS_PATH};
+        for (String levelsPath : levelsPaths) {
+            try {
+                long start = System.nanoTime();
+                String bundlePath = LevelData.compileBundle(levelsPath);
+                System.out.printf("%s -> %s (%d levels, %.1f ms)%n", levelsPath, bundlePath,
+                                  LevelData.loadFromFile(levelsPath).size(), (System.nanoTime()-start)/1e6);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import bagel.util.Point;
+import bagel.util.Rectangle;
+
+import cfg.ImageHeader;
+import cfg.LevelData;
+import cfg.TowerData;
+import game.Body;
+import game.Player;
+import game.SimulationEngine;
+import game.Tower;
+
+/* offline tool searching for the cheapest tower layouts that clear a level
+   random layouts of ground towers, bought with the starting money before the first wave,
+   are each played out in a headless simulation; evaluations are fanned out across all cores with fork/join
+   usage: PlacementOptimiser levelNumber [candidates] [seed] */
+public class PlacementOptimiser {
+    private static final int DEFAULT_CANDIDATES = 10000;
+    private static final int RESULTS_SHOWN = 10;
+    private static final int PLACEMENT_ATTEMPTS = 50;  // random positions tried per tower before giving up
+    private static final double STOP_CHANCE = 0.25;    // chance of buying no more towers, so cheap layouts are sampled
+    private static final double FRAME_TIME = 5.0/75;   // five of the engine's fixed steps, so each step matches the game's
+    private static final int SEQUENTIAL_THRESHOLD = 8; // candidates evaluated per fork/join task without splitting
+
+    // UI panels, which towers cannot be placed on in the game
+    private static final String BUY_PANEL_PATH = "res/images/buypanel.png";
+    private static final String STATUS_PANEL_PATH = "res/images/statuspanel.png";
+
+    public static void main(String[] args) {
+        int levelNum = Integer.parseInt(args[0]);
+        int candidates = args.length>1 ? Integer.parseInt(args[1]) : DEFAULT_CANDIDATES;
+        long seed = args.length>2 ? Long.parseLong(args[2]) : new SplittableRandom().nextLong();
+
+        NavigableMap<Integer,LevelData> level = LevelData.loadFromFile().subMap(levelNum, true, levelNum, true);
+        if (level.isEmpty()) {
+            System.err.println("no level "+levelNum+" in levels.csv");
+            return;
+        }
+
+        // every candidate gets its own seed up front, so results do not depend on scheduling
+        SplittableRandom random = new SplittableRandom(seed);
+        long[] seeds = new long[candidates];
+        for (int i=0; i<candidates; i++) seeds[i] = random.nextLong();
+
+        long start = System.nanoTime();
+        Layout[] results = new Layout[candidates];
+        ForkJoinPool.commonPool().invoke(new Evaluation(level, seeds, results, 0, candidates));
+        double seconds = (System.nanoTime()-start)/1e9;
+
+        Arrays.sort(results, Layout.RANKING);
+        System.out.printf("level %d, seed %d: %d layouts in %.1fs (%.0f per minute, %d threads)%n",
+            levelNum, seed, candidates, seconds, candidates/seconds*60, ForkJoinPool.commonPool().getParallelism());
+        for (int i=0; i<Math.min(RESULTS_SHOWN, candidates); i++) System.out.println(results[i]);
+    }
+
+    /**
+     * generates a random layout and plays the level out with it
+     *
+     * @param level a Map holding only the level to be played
+     * @param seed the seed for the layout and the simulation
+     * @return the layout and its outcome
+     */
+    static Layout evaluate (NavigableMap<Integer,LevelData> level, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        SimulationEngine sim = new SimulationEngine(level, random.nextLong());
+        double buyPanelHeight = ImageHeader.getHeight(BUY_PANEL_PATH);
+        double statusPanelHeight = ImageHeader.getHeight(STATUS_PANEL_PATH);
+        sim.setPlayAreaTop(buyPanelHeight);
+        sim.setPanelBounds(Arrays.asList(
+            new Rectangle(0, 0, ImageHeader.getWidth(BUY_PANEL_PATH), buyPanelHeight),
+            new Rectangle(0, sim.getHeight()-statusPanelHeight, ImageHeader.getWidth(STATUS_PANEL_PATH), statusPanelHeight)));
+
+        // buy random affordable ground towers at random valid positions
+        Layout layout = new Layout(seed);
+        Player player = sim.getPlayer();
+        while (random.nextDouble()>=STOP_CHANCE) {
+            List<String> affordable = new ArrayList<String>();
+            for (Map.Entry<String,TowerData> t : Tower.DATA.entrySet()) {
+                if (!t.getValue().isAirSupport & player.canAfford(t.getValue().cost)) affordable.add(t.getKey());
+            }
+            if (affordable.isEmpty()) break;
+            String towerKey = affordable.get(random.nextInt(affordable.size()));
+            for (int i=0; i<PLACEMENT_ATTEMPTS; i++) {
+                Point position = new Point(random.nextDouble()*sim.getWidth(), random.nextDouble()*sim.getHeight());
+                Rectangle bounds = new Body(Tower.DATA.get(towerKey).spritePath, position).getBoundingBoxAtPosition();
+                if (Tower.getValidPlacement(sim, bounds, false) && player.spendIfEnough(Tower.DATA.get(towerKey).cost)) {
+                    Tower.addTower(sim, towerKey, position);
+                    layout.add(towerKey, position, Tower.DATA.get(towerKey).cost);
+                    break;
+                }
+            }
+        }
+
+        // play every wave of the level, starting each as soon as the last is cleared
+        while (!player.isSuspended()) {
+            sim.tick(FRAME_TIME);
+            if (sim.isWaveComplete()) sim.startNextWave();
+        }
+        layout.cleared = player.isWinner();
+        layout.leaks = player.getLeaks();
+        return layout;
+    }
+
+    // evaluates a range of candidates, splitting it in halves until it is small enough
+    private static class Evaluation extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final NavigableMap<Integer,LevelData> level;
+        private final long[] seeds;
+        private final Layout[] results;
+        private final int from;
+        private final int to;
+
+        private Evaluation (NavigableMap<Integer,LevelData> nlevel, long[] nseeds, Layout[] nresults, int nfrom, int nto) {
+            level = nlevel;
+            seeds = nseeds;
+            results = nresults;
+            from = nfrom;
+            to = nto;
+        }
+
+        @Override
+        protected void compute() {
+            if (to-from<=SEQUENTIAL_THRESHOLD) {
+                for (int i=from; i<to; i++) results[i] = evaluate(level, seeds[i]);
+            } else {
+                int mid = (from+to)>>>1;
+                invokeAll(new Evaluation(level, seeds, results, from, mid), new Evaluation(level, seeds, results, mid, to));
+            }
+        }
+    }
+
+    // a tower layout and the outcome of playing a level with it
+    static class Layout {
+        // layouts that clear the level first, then fewest leaks, then cheapest
+        static final Comparator<Layout> RANKING = Comparator.comparing((Layout l) -> !l.cleared)
+            .thenComparingInt(l -> l.leaks)
+            .thenComparingInt(l -> l.spent);
+
+        final long seed;
+        final List<String> towers = new ArrayList<String>();
+        final List<Point> positions = new ArrayList<Point>();
+        int spent = 0;
+        int leaks = 0;
+        boolean cleared = false;
+
+        Layout (long nseed) {seed = nseed;}
+
+        void add (String towerKey, Point position, int cost) {
+            towers.add(towerKey);
+            positions.add(position);
+            spent += cost;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(cleared ? "cleared" : "failed ").append(String.format(" leaks=%-3d spent=$%-4d seed=%d", leaks, spent, seed));
+            for (int i=0; i<towers.size(); i++) {
+                sb.append(String.format("%n    %s at (%.0f, %.0f)", towers.get(i), positions.get(i).x, positions.get(i).y));
+            }
+            return sb.toString();
+        }
+    }
+}